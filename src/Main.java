@@ -13,9 +13,9 @@ import static process.features.FeatureExtractor.countAllFeatures;
 
 public class Main {
     public static void main(String[] args) {
-        // Training image size
-        int width = 19;
-        int height = 19;
+        // Training image size (default: 19x19, the size of the CBCL dataset)
+        int width = args.length >= 2 ? Integer.parseInt(args[0]) : 19;
+        int height = args.length >= 2 ? Integer.parseInt(args[1]) : 19;
 
         // TODO : TO CONSTANTS
         float cascadeTargetFPR = 0.0000005f;
@@ -35,20 +35,21 @@ public class Main {
         System.out.println("Total memory: " + Runtime.getRuntime().totalMemory());
         System.out.println("Available Processors (num of max threads) : " + Runtime.getRuntime().availableProcessors());
 
-        Serializer.featureCount = countAllFeatures(width, height);
-
 
         Classifier classifier = new Classifier(width, height);
         classifier.train("data/trainset", "data/testset", 0.5f, cascadeTargetAccuracy, cascadeTargetFPR, layerTargetFPR, true);
+//        classifier.resume(Conf.TRAIN_CHECKPOINT); // Instead of train, after a training stopped
 
 
 //        ArrayList<Float> tweaks = new ArrayList<>();
-//        ArrayList<ArrayList<StumpRule>> cascade = CascadeSerializer.loadCascadeFromXML(Conf.TRAIN_DIR + "/cascade-2016-10-05-14-39-01.data", tweaks);
-//        classifier.test("data/testset", cascade, tweaks);
-//        Test.soutenance(19, 19, cascade, tweaks);
+//        int[] windowSize = new int[2]; // Training window recorded in the cascade file
+//        ArrayList<ArrayList<StumpRule>> cascade = CascadeSerializer.loadCascadeFromXML(Conf.TRAIN_DIR + "/cascade-2016-10-05-14-39-01.data", tweaks, windowSize);
+//        new Classifier(windowSize[0], windowSize[1]).test("data/testset", cascade, tweaks);
+//        Test.soutenance(windowSize[0], windowSize[1], cascade, tweaks);
 
 //        Perfs.benchmarksTrainFeatures();
-//        Perfs.benchmarkDetect(cascade, tweaks);
-//        Perfs.compareDetectFacesTime(width, height);
+//        Perfs.benchmarkDetect(windowSize[0], windowSize[1], cascade, tweaks);
+//        Perfs.compareDetectFacesTime(windowSize[0], windowSize[1], cascade, tweaks);
+//        Perfs.benchmarkArgSort(width, height);
     }
 }
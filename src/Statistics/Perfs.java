@@ -6,9 +6,12 @@ import process.ImageEvaluator;
 import process.StumpRule;
 import process.features.Feature;
 import process.features.FeatureExtractor;
+import utils.ArgSort;
+import utils.FeatureCodec;
 import utils.Utils;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 import static utils.Utils.streamFiles;
 
@@ -77,6 +80,93 @@ public class Perfs {
 
     }
 
+    public static void benchmarkFeatureCodec(int width, int height) {
+        int maxIter = 1000;
+        long featureCount = FeatureExtractor.countAllFeatures(width, height);
+
+        ArrayList<int[]> vectors = new ArrayList<>();
+        for (String path : Utils.streamFiles("data/trainset/faces", Conf.IMAGES_EXTENSION)) {
+            vectors.add(FeatureExtractor.computeImageFeatures(new ImageHandler(path), false, path));
+            if (vectors.size() == maxIter)
+                break;
+        }
+
+        // Warm up the JIT before measuring
+        for (int[] v : vectors)
+            FeatureCodec.decode(FeatureCodec.encode(v, (int) featureCount));
+
+        long encodedBytes = 0;
+        ArrayList<byte[]> encoded = new ArrayList<>(vectors.size());
+        long encodeStart = System.nanoTime();
+        for (int[] v : vectors)
+            encoded.add(FeatureCodec.encode(v, (int) featureCount));
+        long encodeTime = System.nanoTime() - encodeStart;
+
+        long decodeStart = System.nanoTime();
+        for (byte[] e : encoded)
+            FeatureCodec.decode(e);
+        long decodeTime = System.nanoTime() - decodeStart;
+
+        for (byte[] e : encoded)
+            encodedBytes += e.length;
+        long rawBytes = featureCount * Integer.BYTES * vectors.size();
+
+        System.out.println("------ TEST 4 ------");
+        System.out.println("BENCHMARK FEATURE CODEC");
+        System.out.println("NUMBER OF VECTORS: " + vectors.size() + " (" + featureCount + " features)");
+        System.out.println("RAW SIZE   : " + rawBytes + " bytes");
+        System.out.println("ENCODED    : " + encodedBytes + " bytes (ratio " + String.format("%1.2f", (double) rawBytes / (double) encodedBytes) + ")");
+        System.out.println("ENCODE     : " + String.format("%1.1f", rawBytes / (encodeTime / 1e9) / 1e6) + " MB/s (raw)");
+        System.out.println("DECODE     : " + String.format("%1.1f", rawBytes / (decodeTime / 1e9) / 1e6) + " MB/s (raw)");
+    }
+
+    /**
+     * Times both ArgSort paths on columns of random Haar values of a width x height window, for growing lengths, to
+     * find the length from which the radix sort is faster (ArgSort.RADIX_THRESHOLD).
+     */
+    public static void benchmarkArgSort(int width, int height) {
+        int bound = width * height * 255;
+        Random random = new Random(42);
+
+        System.out.println("------ TEST 5 ------");
+        System.out.println("BENCHMARK ARGSORT (values in +/-" + bound + ", ns per value)");
+        System.out.println("LENGTH    COMPARISON    RADIX");
+
+        int crossover = -1;
+        for (int n = 16; n <= 1 << 20; n *= 2) {
+            int[] column = new int[n];
+            for (int i = 0; i < n; i++)
+                column[i] = random.nextInt(2 * bound + 1) - bound;
+            int iterations = Math.max(5, (1 << 24) / n);
+
+            long[] times = new long[2];
+            for (int run = 0; run < 2; run++) { // first run warms up the JIT
+                for (int method = 0; method < 2; method++) {
+                    int[] values = new int[n];
+                    int[] indexes = new int[n];
+                    long start = System.nanoTime();
+                    for (int it = 0; it < iterations; it++) {
+                        System.arraycopy(column, 0, values, 0, n);
+                        for (int i = 0; i < n; i++)
+                            indexes[i] = i;
+                        if (method == 0)
+                            ArgSort.comparisonSort(values, indexes, n);
+                        else
+                            ArgSort.radixSort(values, indexes, n);
+                    }
+                    times[method] = System.nanoTime() - start;
+                }
+            }
+
+            double comparison = (double) times[0] / iterations / n;
+            double radix = (double) times[1] / iterations / n;
+            if (crossover < 0 && radix < comparison)
+                crossover = n;
+            System.out.println(String.format("%-9d %-13.2f %.2f", n, comparison, radix));
+        }
+        System.out.println("RADIX FASTER FROM: " + crossover + " (ArgSort.RADIX_THRESHOLD = " + ArgSort.RADIX_THRESHOLD + ")");
+    }
+
     private static int computeImageEval(String path, String ext, ImageEvaluator imageEvaluator) {
         int faces = 0;
         for (String listTestFace : streamFiles(path, ext)) {
@@ -85,7 +175,11 @@ public class Perfs {
         return faces;
     }
 
-    public static void benchmarkDetect(ArrayList<ArrayList<StumpRule>> cascade, ArrayList<Float> tweaks) {
+    /**
+     * width x height is the training window of the cascade (see CascadeSerializer.loadCascadeFromXML), which is also
+     * the size of the test set images.
+     */
+    public static void benchmarkDetect(int width, int height, ArrayList<ArrayList<StumpRule>> cascade, ArrayList<Float> tweaks) {
         ImageEvaluator imageEvaluator;
 
         System.out.println("------ TEST 3 ------");
@@ -95,44 +189,44 @@ public class Perfs {
         // On test set
         {
             Conf.USE_CUDA = true;
-            imageEvaluator = new ImageEvaluator(19, 19, 19, 19, 1, 1, 19, 19, 0, cascade, tweaks);
+            imageEvaluator = new ImageEvaluator(width, height, width, height, 1, 1, Math.max(width, height), Math.max(width, height), 0, cascade, tweaks);
             r = computeImageEval("data/testset", Conf.IMAGES_EXTENSION, imageEvaluator);
-            System.out.println("Total computing time for HaarDetector (GPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images 19x19 (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
+            System.out.println("Total computing time for HaarDetector (GPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images " + width + "x" + height + " (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
             imageEvaluator.haarDetector.close();
 
             Conf.USE_CUDA = false;
-            imageEvaluator = new ImageEvaluator(19, 19, 19, 19, 1, 1, 19, 19, 0, cascade, tweaks);
+            imageEvaluator = new ImageEvaluator(width, height, width, height, 1, 1, Math.max(width, height), Math.max(width, height), 0, cascade, tweaks);
             r = computeImageEval("data/testset", Conf.IMAGES_EXTENSION, imageEvaluator);
-            System.out.println("Total computing time for HaarDetector (CPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images 19x19 (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
+            System.out.println("Total computing time for HaarDetector (CPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images " + width + "x" + height + " (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
             imageEvaluator.haarDetector.close();
 
             Conf.USE_CUDA = true;
-            imageEvaluator = new ImageEvaluator(19, 19, 19, 19, 1, 1, 10, 19, 0, cascade, tweaks);
+            imageEvaluator = new ImageEvaluator(width, height, width, height, 1, 1, 10, Math.max(width, height), 0, cascade, tweaks);
             r = computeImageEval("data/testset", Conf.IMAGES_EXTENSION, imageEvaluator);
-            System.out.println("Total computing time for HaarDetector (GPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images 19x19 (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
+            System.out.println("Total computing time for HaarDetector (GPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images " + width + "x" + height + " (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
             imageEvaluator.haarDetector.close();
 
             Conf.USE_CUDA = false;
-            imageEvaluator = new ImageEvaluator(19, 19, 19, 19, 1, 1, 10, 19, 0, cascade, tweaks);
+            imageEvaluator = new ImageEvaluator(width, height, width, height, 1, 1, 10, Math.max(width, height), 0, cascade, tweaks);
             r = computeImageEval("data/testset", Conf.IMAGES_EXTENSION, imageEvaluator);
-            System.out.println("Total computing time for HaarDetector (CPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images 19x19 (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
+            System.out.println("Total computing time for HaarDetector (CPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images " + width + "x" + height + " (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
             imageEvaluator.haarDetector.close();
 
             Conf.USE_CUDA = true;
-            imageEvaluator = new ImageEvaluator(19, 19, 19, 19, 1, 1, 5, 19, 0, cascade, tweaks);
+            imageEvaluator = new ImageEvaluator(width, height, width, height, 1, 1, 5, Math.max(width, height), 0, cascade, tweaks);
             r = computeImageEval("data/testset", Conf.IMAGES_EXTENSION, imageEvaluator);
-            System.out.println("Total computing time for HaarDetector (GPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images 19x19 (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
+            System.out.println("Total computing time for HaarDetector (GPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images " + width + "x" + height + " (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
             imageEvaluator.haarDetector.close();
 
             Conf.USE_CUDA = false;
-            imageEvaluator = new ImageEvaluator(19, 19, 19, 19, 1, 1, 5, 19, 0, cascade, tweaks);
+            imageEvaluator = new ImageEvaluator(width, height, width, height, 1, 1, 5, Math.max(width, height), 0, cascade, tweaks);
             r = computeImageEval("data/testset", Conf.IMAGES_EXTENSION, imageEvaluator);
-            System.out.println("Total computing time for HaarDetector (CPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images 19x19 (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
+            System.out.println("Total computing time for HaarDetector (CPU): " + imageEvaluator.computingTimeMS + "ms for 24044 images " + width + "x" + height + " (" + r + " faces detected - " + imageEvaluator.haarDetector.slidingWindowsSize + " sliding windows)");
             imageEvaluator.haarDetector.close();
         }
         {
             Conf.USE_CUDA = true;
-            imageEvaluator = new ImageEvaluator(19, 19, 2048, 1536, 3, 3, 100, 300, 0, cascade, tweaks);
+            imageEvaluator = new ImageEvaluator(width, height, 2048, 1536, 3, 3, 100, 300, 0, cascade, tweaks);
 
             int i = 0;
             for (String listTestFace : streamFiles("data/high-res", ".jpg")) {
@@ -147,7 +241,7 @@ public class Perfs {
 
             i = 0;
             Conf.USE_CUDA = false;
-            imageEvaluator = new ImageEvaluator(19, 19, 2048, 1536, 3, 3, 100, 300, 0, cascade, tweaks);
+            imageEvaluator = new ImageEvaluator(width, height, 2048, 1536, 3, 3, 100, 300, 0, cascade, tweaks);
 
             for (String listTestFace : streamFiles("data/high-res", ".jpg")) {
                 r = imageEvaluator.getFaces(listTestFace, false).size();
@@ -182,14 +276,14 @@ public class Perfs {
                 displacer = 1;
 
             Conf.USE_CUDA =true;
-            ImageEvaluator imageEvaluatorCUDA = new ImageEvaluator(width, height, image.getWidth(), image.getHeight(), displacer, displacer, 19, minDim, 1.25f, 0, cascade, tweaks);
+            ImageEvaluator imageEvaluatorCUDA = new ImageEvaluator(width, height, image.getWidth(), image.getHeight(), displacer, displacer, Math.max(width, height), minDim, 1.25f, 0, cascade, tweaks);
             nbFacesFoundCuda = imageEvaluatorCUDA.getFaces(image, false).size();
             timeCuda = imageEvaluatorCUDA.computingTimeMS;
             nbSlidingWindowsCuda = imageEvaluatorCUDA.slidingWindows.size();
             imageEvaluatorCUDA.haarDetector.close();
 
             Conf.USE_CUDA =false;
-            ImageEvaluator imageEvaluatorCPU = new ImageEvaluator(width, height, image.getWidth(), image.getHeight(), displacer, displacer, 19, minDim, 1.25f, 0, cascade, tweaks);
+            ImageEvaluator imageEvaluatorCPU = new ImageEvaluator(width, height, image.getWidth(), image.getHeight(), displacer, displacer, Math.max(width, height), minDim, 1.25f, 0, cascade, tweaks);
             nbFacesFoundCPU = imageEvaluatorCPU.getFaces(image, false).size();
             timeCPU = imageEvaluatorCPU.computingTimeMS;
             nbSlidingWindowsCPU = imageEvaluatorCPU.slidingWindows.size();
@@ -42,10 +42,14 @@ public class HaarDetector extends HaarBase {
     private int[] allFeatures;
     private int baseSize;
 
-    public HaarDetector(HashMap<Integer, Integer> neededHaarValues, int baseSize, int width, int height, ArrayList<Rectangle> windows) {
+    /**
+     * trainWidth x trainHeight is the size of the window the cascade was trained on:
+     * feature indexes of neededHaarValues refer to the features of that window.
+     */
+    public HaarDetector(HashMap<Integer, Integer> neededHaarValues, int trainWidth, int trainHeight, int width, int height, ArrayList<Rectangle> windows) {
 
         this.neededHaarValues = neededHaarValues;
-        this.baseSize = baseSize;
+        this.baseSize = trainHeight;
         this.integral = null;
         this.width = width;
         this.height = height;
@@ -83,7 +87,7 @@ public class HaarDetector extends HaarBase {
         // Get features that correspond to given indexes
         {
             Feature feattt[] = new Feature[neededFeaturesSize];
-            for (ArrayList<Feature> lf : streamFeaturesByType(new ImageHandler(new int[19][19], 19, 19))) {
+            for (ArrayList<Feature> lf : streamFeaturesByType(new ImageHandler(new int[trainWidth][trainHeight], trainWidth, trainHeight))) {
                 for (Feature f : lf) {
                     if (neededHaarValues.containsKey(cpt))
                         feattt[neededHaarValues.get(cpt)] = f;
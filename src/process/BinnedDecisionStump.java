@@ -0,0 +1,128 @@
+package process;
+
+import process.features.BinnedFeatures;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+
+/**
+ * DecisionStump over the bins of a feature (see BinnedFeatures): one pass over the examples not removed (nor trimmed,
+ * see Conf.WEIGHT_TRIMMING) accumulates the weight of positive and negative examples of each bin, then the bins are
+ * scanned like the sorted values of DecisionStump.
+ * Thresholds are restricted to the edges between bins, so the cost of the scan does not depend on N.
+ *
+ * When a feature has at most as many distinct values as bins, the candidate rules are the ones of DecisionStump.
+ */
+public class BinnedDecisionStump implements Callable<StumpRule> {
+    private BinnedFeatures features;
+    private byte[] Y; // -1 or 1
+    private double[] weights;
+    private long featureIndex;
+    private int[] examples; // Examples to accumulate: the others add nothing (see liveExamples)
+    private double totalWeightPos;
+    private double totalWeightNeg;
+    private double minWeight;
+
+    public BinnedDecisionStump(BinnedFeatures features, byte[] labels, double[] weights, long featureIndex, int[] examples, double totalWeightPos, double totalWeightNeg, double minWeight) {
+        this.features = features;
+        this.Y = labels;
+        this.weights = weights;
+        this.featureIndex = featureIndex;
+        this.examples = examples;
+        this.totalWeightPos = totalWeightPos;
+        this.totalWeightNeg = totalWeightNeg;
+        this.minWeight = minWeight;
+    }
+
+    /**
+     * Indexes of the examples not removed and of non-zero weight
+     */
+    public static int[] liveExamples(boolean[] removed, double[] weights) {
+        int count = 0;
+        for (int i = 0; i < removed.length; i++)
+            if (!removed[i] && weights[i] != 0)
+                count++;
+        int[] examples = new int[count];
+        count = 0;
+        for (int i = 0; i < removed.length; i++)
+            if (!removed[i] && weights[i] != 0)
+                examples[count++] = i;
+        return examples;
+    }
+
+    @Override
+    public StumpRule call() throws Exception {
+        int binCount = features.binCount(featureIndex);
+        double[] binWeightPos = new double[binCount];
+        double[] binWeightNeg = new double[binCount];
+
+        ByteBuffer bins = features.bins(featureIndex);
+        for (int exampleIndex : examples) {
+            int bin = bins.get(exampleIndex) & 0xFF;
+            if (Y[exampleIndex] < 0)
+                binWeightNeg[bin] += weights[exampleIndex];
+            else
+                binWeightPos[bin] += weights[exampleIndex];
+        }
+
+        // Left & Right hand of the stump
+        double leftWeightPos = 0;
+        double leftWeightNeg = 0;
+        double rightWeightPos = totalWeightPos;
+        double rightWeightNeg = totalWeightNeg;
+
+        // Current rule: threshold before (-1) the first bin
+        double threshold = (double) (features.lowest(featureIndex, 0) - 1);
+        double margin = -1;
+
+        double bestError = 2;
+        double bestThreshold = threshold;
+        double bestMargin = margin;
+        int bestToggle = 0;
+
+        for (int bin = 0; ; bin++) {
+            double errorPlus = leftWeightPos + rightWeightNeg;
+            double errorMinus = rightWeightPos + leftWeightNeg;
+
+            double Epsilon_hat;
+            int toggle;
+            if (errorPlus < errorMinus) {
+                Epsilon_hat = errorPlus;
+                toggle = 1;
+            } else {
+                Epsilon_hat = errorMinus;
+                toggle = -1;
+            }
+
+            double error = Epsilon_hat < minWeight * 0.9 ? minWeight * 0.9 : Epsilon_hat;
+
+            // Same order as StumpRule.compare: lower error first, then wider margin
+            if (error < bestError || (error == bestError && margin > bestMargin)) {
+                bestError = error;
+                bestThreshold = threshold;
+                bestMargin = margin;
+                bestToggle = toggle;
+            }
+
+            if (bin == binCount)
+                break;
+
+            leftWeightPos += binWeightPos[bin];
+            rightWeightPos -= binWeightPos[bin];
+            leftWeightNeg += binWeightNeg[bin];
+            rightWeightNeg -= binWeightNeg[bin];
+
+            // Threshold between this bin and the next one, or after (+1) the last bin
+            if (bin == binCount - 1) {
+                threshold = (double) (features.highest(featureIndex, bin) + 1);
+                margin = 0;
+            } else {
+                int previous = features.highest(featureIndex, bin);
+                int next = features.lowest(featureIndex, bin + 1);
+                threshold = ((double) (previous + next)) / 2.0d;
+                margin = (double) next - previous;
+            }
+        }
+        return new StumpRule(featureIndex, bestError, bestThreshold, bestMargin, bestToggle);
+    }
+}
@@ -1,18 +1,28 @@
 package process;
 
 import jeigen.DenseMatrix;
+import process.features.BinnedFeatures;
+import process.features.ColumnPrefetcher;
+import process.features.DiskFeatureStore;
 import process.features.Face;
+import process.features.FeatureStore;
+import process.features.OnTheFlyFeatures;
+import process.distributed.StumpCoordinator;
 import utils.CascadeSerializer;
+import utils.FeatureCache;
+import utils.MemoryBudget;
 import utils.Serializer;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.concurrent.*;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.lang.Math.log;
 import static process.Test.isFace;
 import static process.features.FeatureExtractor.*;
-import static utils.Serializer.buildImagesFeatures;
 import static utils.Utils.*;
 
 public class Classifier {
@@ -75,6 +85,7 @@ public class Classifier {
     private DenseMatrix weightsTest;
     private DenseMatrix labelsTrain;
     private DenseMatrix labelsTest;
+    private byte[] trainLabels; // labelsTrain as bytes, read by DecisionStump
 
     private double totalWeightPos; // total weight received by positive examples currently
     private double totalWeightNeg; // total weight received by negative examples currently
@@ -82,21 +93,39 @@ public class Classifier {
     private double minWeight; // minimum weight among all weights currently
     private double maxWeight; // maximum weight among all weights currently
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(Conf.TRAIN_MAX_CONCURENT_PROCESSES);
+    private Random featureSampler; // Chooses the features evaluated by bestStump when sampling (see Conf.FEATURE_SAMPLING_RATIO)
+    private double samplingGapSum;
+    private int samplingGapCount;
+
+    // Weights seen by the stump search: the lightest examples get 0 with weight trimming (see Conf.WEIGHT_TRIMMING)
+    private WeightTrimming trimming;
+
+    private MemoryBudget memoryBudget;
+    private FeatureCache featureCache; // Feature values of the validation examples cached in memory, see FeatureCache
+    private FeatureStore trainFeatures; // Sorted columns of the training features, see FeatureStore
+    private BinnedFeatures binnedFeatures; // Training features quantised for the histogram stump search, null for the exact one
+
+    private ForkJoinPool pool; // Runs the stump searches of a training (see StumpSearch), shut down when it ends
+    private StumpCoordinator coordinator; // Shares the stump searches with worker processes (see Conf.SHARD_WORKERS), null to search here
+
+    private double accumulatedFPR; // Product of the validation FPR of the finished layers
+    private TrainingCheckpoint checkpoint; // Parameters of the current training, completed with its state by saveCheckpoint
+    private TrainingCheckpoint resumeFrom; // Checkpoint given to resume, restored by train
 
 
     public Classifier(int width, int height) {
         this.width = width;
         this.height = height;
 
-        this.featureCount = Serializer.featureCount;
+        this.featureCount = countAllFeatures(width, height);
+        Serializer.featureCount = featureCount;
         System.out.println("Feature count for " + width + "x" + height + ": " + featureCount);
     }
 
     /**
      * Used to compute results
      */
-    private static void predictLabel(ArrayList<StumpRule> committee, int N, float decisionTweak, boolean onlyMostRecent, DenseMatrix prediction) {
+    private void predictLabel(ArrayList<StumpRule> committee, int N, float decisionTweak, boolean onlyMostRecent, DenseMatrix prediction) {
         // prediction = Matrix<int, 1,n > -> To be filled here
 
         int committeeSize = committee.size();
@@ -121,10 +150,12 @@ public class Classifier {
             memberWeight.set(member, log(safeDiv(1.0d, err) - 1));
 
             long featureIndex = committee.get(member).featureIndex;
-            final int[] featureExamplesIndexes = getFeatureExamplesIndexes(featureIndex, N);
-            final int[] featureValues = getFeatureValues(featureIndex, N);
+            final int[][] featureColumn = trainFeatures.column(featureIndex);
+            final int[] featureExamplesIndexes = featureColumn[0];
+            final int[] featureValues = featureColumn[1];
 
-            for (int i = 0; i < N; i++)
+            // Examples compacted away (see compactTrainFeatures) keep a verdict of 0: they were rejected by a previous layer
+            for (int i = 0; i < featureValues.length; i++)
                 memberVerdict.set(member, featureExamplesIndexes[i],
                         ((featureValues[i] > committee.get(member).threshold ? 1 : -1) * committee.get(member).toggle) + decisionTweak);
         }
@@ -153,7 +184,7 @@ public class Classifier {
      *
      * Pair<Integer i, Boolean b> indicates whether feature i is a face (b=true) or not (b=false)
      */
-    private StumpRule bestStump() {
+    private StumpRule bestStump(int round) {
         long startTime = System.currentTimeMillis();
 
         // Compare each StumpRule and find the best by following this algorithm:
@@ -161,22 +192,33 @@ public class Classifier {
         //   else if (current.weightedError == best.weightedError && current.margin > best.margin) -> best = current
 
 //        System.out.println("      - Calling bestStump with totalWeightsPos: " + totalWeightPos + " totalWeightNeg: " + totalWeightNeg + " minWeight: " + minWeight);
-        ArrayList<Future<StumpRule>> futureResults = new ArrayList<>(trainN);
-        for (int i = 0; i < featureCount; i++)
-            futureResults.add(executor.submit(new DecisionStump(labelsTrain, weightsTrain, i, trainN, totalWeightPos, totalWeightNeg, minWeight, removedFromTrain)));
-
-        StumpRule best = null;
-        for (int i = 0; i < featureCount; i++) {
-            if (!stumpBlacklist[i])
-                try {
-                        StumpRule current = futureResults.get(i).get();
-                        if (best == null)
-                            best = current;
-                        else if (current.compare(best))
-                            best = current;
-                } catch (InterruptedException | ExecutionException e) {
-                    e.printStackTrace();
-                }
+        trimWeights();
+        double samplingRatio = featureSamplingRatio(round);
+        ArrayList<Integer> features = sampleFeatures(featureSampler, stumpBlacklist, samplingRatio);
+        StumpRule best = searchStumps(features);
+
+        if (samplingRatio < 1 && Conf.FEATURE_SAMPLING_REPORT_GAP) {
+            StumpRule exhaustive = searchStumps(sampleFeatures(featureSampler, stumpBlacklist, 1));
+            double gap = best.error - exhaustive.error;
+            samplingGapSum += gap;
+            samplingGapCount++;
+            System.out.println("    - Sampled " + String.format("%1.3f", samplingRatio) + " of features: error gap vs exhaustive search = " + gap +
+                    " (mean gap: " + samplingGapSum / samplingGapCount + ")");
+        }
+
+        if (trimming.trimmedCount > 0) {
+            // Rules are weighted by their error in the cascade, and weights are updated from it: use the error on all examples
+            double trimmedError = best.error;
+            best.error = DecisionStump.error(trainFeatures, trainLabels, weightsTrain.getValues(), removedFromTrain,
+                    totalWeightPos, totalWeightNeg, minWeight, best);
+            System.out.println("    - Weight trimming skipped " + trimming.trimmedCount + " examples (" +
+                    String.format("%1.4f", 1 - (trimming.weightPos + trimming.weightNeg) / (totalWeightPos + totalWeightNeg)) +
+                    " of weight): error " + trimmedError + " on kept examples, " + best.error + " on all examples");
+            if (Conf.WEIGHT_TRIMMING_REPORT_GAP) {
+                trimming = WeightTrimming.trim(weightsTrain.getValues(), trainLabels, removedFromTrain, totalWeightPos, totalWeightNeg, 0);
+                StumpRule untrimmed = searchStumps(features);
+                System.out.println("    - Error gap vs search without trimming = " + (best.error - untrimmed.error));
+            }
         }
 
         if (best.error >= 0.5) {
@@ -195,6 +237,113 @@ public class Classifier {
         return best;
     }
 
+    /**
+     * Fraction of the features evaluated by bestStump during the given cascade layer.
+     * Grows by Conf.FEATURE_SAMPLING_GROWTH at each layer, because later layers need more discriminative features.
+     */
+    private static double featureSamplingRatio(int round) {
+        return Math.min(1, Conf.FEATURE_SAMPLING_RATIO * Math.pow(Conf.FEATURE_SAMPLING_GROWTH, round));
+    }
+
+    /**
+     * Returns the indexes of the features to evaluate, in ascending order: a random fraction (samplingRatio) of the
+     * features not blacklisted, drawn with sampler (which is not used when samplingRatio >= 1).
+     */
+    public static ArrayList<Integer> sampleFeatures(Random sampler, boolean[] blacklist, double samplingRatio) {
+        ArrayList<Integer> features = new ArrayList<>();
+        for (int i = 0; i < blacklist.length; i++)
+            if (!blacklist[i] && (samplingRatio >= 1 || sampler.nextDouble() < samplingRatio))
+                features.add(i);
+
+        // At least one feature has to be evaluated
+        if (features.isEmpty())
+            for (int i = 0; i < blacklist.length && features.isEmpty(); i++)
+                if (!blacklist[i])
+                    features.add(i);
+        return features;
+    }
+
+    /**
+     * Weight trimming only speeds up the binned search, which skips examples of weight 0 (see WeightTrimming)
+     */
+    private void trimWeights() {
+        // A 1xN matrix: its values are the weights in example order
+        trimming = WeightTrimming.trim(weightsTrain.getValues(), trainLabels, removedFromTrain, totalWeightPos, totalWeightNeg,
+                binnedFeatures != null ? Conf.WEIGHT_TRIMMING : 0);
+    }
+
+    private StumpRule searchStumps(ArrayList<Integer> features) {
+        if (coordinator != null) {
+            try {
+                return coordinator.search(features, trimming.weights, removedFromTrain, trimming.weightPos, trimming.weightNeg, minWeight);
+            } catch (IOException e) {
+                System.err.println("Sharded stump search failed: " + e.getMessage());
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        // Blocks of features are searched roughly in list order: their columns can be read ahead in the same order
+        ColumnPrefetcher prefetcher = memoryBudget.getPrefetchMemory() > 0 && binnedFeatures == null && trainFeatures instanceof DiskFeatureStore
+                ? new ColumnPrefetcher((DiskFeatureStore) trainFeatures, features, memoryBudget.getPrefetchMemory()) : null;
+        StumpRule best = StumpSearch.search(pool, trainFeatures, binnedFeatures, trainLabels, trimming.weights, features,
+                trimming.weightPos, trimming.weightNeg, minWeight, removedFromTrain, prefetcher);
+        if (prefetcher != null) {
+            prefetcher.close();
+            System.out.println("    - " + prefetcher);
+        }
+        return best;
+    }
+
+    /**
+     * Connects to the workers of Conf.SHARD_WORKERS and makes them load their shard of the organized features.
+     * Binned and on-the-fly features are only searched in this JVM.
+     */
+    private void startCoordinator() {
+        if (binnedFeatures != null || trainFeatures instanceof OnTheFlyFeatures) {
+            System.out.println("  - Ignoring shard workers: only organized features are searched by workers");
+            return;
+        }
+        try {
+            coordinator = new StumpCoordinator(Arrays.asList(Conf.SHARD_WORKERS.split(",")));
+            long startTime = System.currentTimeMillis();
+            coordinator.load(Conf.ORGANIZED_FEATURES, Conf.ORGANIZED_SAMPLE, featureCount, trainN, trainLabels);
+            System.out.println("  - Searching stumps with " + coordinator.getWorkerCount() + " shard workers (loaded in " +
+                    (System.currentTimeMillis() - startTime) / 1000 + "s)");
+        } catch (IOException e) {
+            System.err.println("Could not start shard workers " + Conf.SHARD_WORKERS + ": " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private void stopCoordinator() {
+        if (coordinator == null)
+            return;
+        try {
+            coordinator.close();
+        } catch (IOException e) {
+            System.err.println("Could not close shard workers: " + e.getMessage());
+        }
+        coordinator = null;
+    }
+
+    /**
+     * Drops the examples removed by the previous layers from the training columns, so that the stumps of the next
+     * layers scan fewer entries. Examples removed at the beginning of a layer stay removed: negatives are only kept
+     * while the cascade accepts them, and positives rejected by the cascade are not used again.
+     */
+    private void compactTrainFeatures() {
+        int before = trainFeatures.getN();
+        long startTime = System.currentTimeMillis();
+        FeatureStore compacted = trainFeatures.compact(removedFromTrain);
+        if (compacted != trainFeatures)
+            trainFeatures.close(); // Its compacted files, if any, are not read anymore
+        trainFeatures = compacted;
+        if (trainFeatures.getN() != before)
+            System.out.println("    - Compacted training columns from " + before + " to " + trainFeatures.getN() +
+                    " examples in " + (System.currentTimeMillis() - startTime) / 1000 + "s");
+    }
+
     /**
      * Algorithm 6 from the original paper
      *
@@ -204,7 +353,7 @@ public class Classifier {
      * Explication: The training aims to find the feature with the threshold that will allows to separate positive & negative examples in the best way possible!
      */
     private void adaboost(int round) {
-        StumpRule bestDS = bestStump(); // A new weak classifier
+        StumpRule bestDS = bestStump(round); // A new weak classifier
         cascade[round].add(bestDS); // Add this weak classifier to our current strong classifier to get better results
 
         if (bestDS.error == 0) {
@@ -332,7 +481,7 @@ public class Classifier {
                     removedFromTest[i] = i >= countTestPos;
 
             for (int i = 0; i < nPos; i++) {
-                boolean face = isFace(cascade, tweaks, Serializer.readFeatures(testFaces.get(i) + Conf.FEATURE_EXTENSION), round+1) > 0;
+                boolean face = isFace(cascade, tweaks, featureCache.readFeatures(testFaces.get(i) + Conf.FEATURE_EXTENSION), round+1) > 0;
                 if (!face) {
                     if (updateBlackLists) {
                         usedTestPos--;
@@ -343,7 +492,7 @@ public class Classifier {
             }
 
             for (int i = 0; i < nNeg; i++) {
-                boolean face = isFace(cascade, tweaks, Serializer.readFeatures(testNonFaces.get(i) + Conf.FEATURE_EXTENSION), round+1) > 0;
+                boolean face = isFace(cascade, tweaks, featureCache.readFeatures(testNonFaces.get(i) + Conf.FEATURE_EXTENSION), round+1) > 0;
                 if (face) {
                     if (updateBlackLists) {
                         usedTestNeg--;
@@ -370,7 +519,8 @@ public class Classifier {
 
         System.out.println("    - CommitteeSizeGuide = " + committeeSizeGuide);
 
-        cascade[round] = new ArrayList<>();
+        if (cascade[round] == null) // Already started when resuming the layer
+            cascade[round] = new ArrayList<>();
 
         boolean layerMissionAccomplished = false;
         while (!layerMissionAccomplished) {
@@ -458,9 +608,94 @@ public class Classifier {
 
             if (overSized)
                 break;
+            // After the evaluation of the committee, which updated the tweak and the removed examples the next
+            // iteration trains on
+            if (!layerMissionAccomplished)
+                saveCheckpoint(round, true);
         }
     }
 
+    /**
+     * Writes the state of the training to Conf.TRAIN_CHECKPOINT, before the next iteration of layer round
+     * (layerStarted) or before the layer starts.
+     */
+    void saveCheckpoint(int round, boolean layerStarted) {
+        if (!Conf.TRAIN_CHECKPOINTS)
+            return;
+        checkpoint.round = round;
+        checkpoint.layerStarted = layerStarted;
+        checkpoint.cascade = cascade;
+        checkpoint.tweaks = tweaks;
+        checkpoint.layerMemory = layerMemory;
+        checkpoint.accumulatedFPR = accumulatedFPR;
+        checkpoint.weightsTrain = weightsTrain.getValues();
+        checkpoint.totalWeightPos = totalWeightPos;
+        checkpoint.totalWeightNeg = totalWeightNeg;
+        checkpoint.minWeight = minWeight;
+        checkpoint.maxWeight = maxWeight;
+        checkpoint.removedFromTrain = removedFromTrain;
+        checkpoint.removedFromTest = removedFromTest;
+        checkpoint.stumpBlacklist = stumpBlacklist;
+        checkpoint.usedTrainPos = usedTrainPos;
+        checkpoint.usedTrainNeg = usedTrainNeg;
+        checkpoint.usedTestPos = usedTestPos;
+        checkpoint.usedTestNeg = usedTestNeg;
+        checkpoint.featureSampler = featureSampler;
+        checkpoint.samplingGapSum = samplingGapSum;
+        checkpoint.samplingGapCount = samplingGapCount;
+        checkpoint.write(Conf.TRAIN_CHECKPOINT);
+    }
+
+    /**
+     * Puts the training back in the state of a checkpoint, once train has loaded the dataset
+     */
+    private void restoreCheckpoint(TrainingCheckpoint saved) {
+        if (saved.featureCount != featureCount || saved.countTrainPos != countTrainPos || saved.countTrainNeg != countTrainNeg ||
+                saved.countTestPos != countTestPos || saved.countTestNeg != countTestNeg) {
+            System.err.println("The checkpoint was not written for this dataset (features: " + saved.featureCount +
+                    ", train: " + saved.countTrainPos + "/" + saved.countTrainNeg + ", test: " + saved.countTestPos + "/" + saved.countTestNeg + ")");
+            System.exit(1);
+        }
+        cascade = saved.cascade;
+        tweaks = saved.tweaks;
+        layerMemory = saved.layerMemory;
+        accumulatedFPR = saved.accumulatedFPR;
+        weightsTrain = new DenseMatrix(1, trainN);
+        for (int i = 0; i < trainN; i++)
+            weightsTrain.set(0, i, saved.weightsTrain[i]);
+        totalWeightPos = saved.totalWeightPos;
+        totalWeightNeg = saved.totalWeightNeg;
+        minWeight = saved.minWeight;
+        maxWeight = saved.maxWeight;
+        removedFromTrain = saved.removedFromTrain;
+        removedFromTest = saved.removedFromTest;
+        stumpBlacklist = saved.stumpBlacklist;
+        usedTrainPos = saved.usedTrainPos;
+        usedTrainNeg = saved.usedTrainNeg;
+        usedTestPos = saved.usedTestPos;
+        usedTestNeg = saved.usedTestNeg;
+        featureSampler = saved.featureSampler;
+        samplingGapSum = saved.samplingGapSum;
+        samplingGapCount = saved.samplingGapCount;
+
+        // The cascade file of this run also gets the layers finished before
+        for (int layer = 0; layer < saved.round; layer++)
+            CascadeSerializer.writeCascadeLayerToXML(layer, cascade[layer], tweaks.get(layer));
+        System.out.println("  - Resuming at layer " + (saved.round + 1) + (saved.layerStarted ?
+                " (" + cascade[saved.round].size() + " weak classifiers)" : "") + ", accumulated FPR=" + accumulatedFPR);
+    }
+
+    /**
+     * Continues the training saved in a checkpoint (see Conf.TRAIN_CHECKPOINT) with the same results as if it had not
+     * stopped. The dataset and the configuration must be the ones of the interrupted training.
+     */
+    public void resume(String checkpointPath) {
+        System.out.println("Resuming training from " + checkpointPath);
+        resumeFrom = TrainingCheckpoint.read(checkpointPath);
+        train(resumeFrom.trainDir, resumeFrom.testDir, resumeFrom.initialPositiveWeight, resumeFrom.cascadeTargetAccuracy,
+                resumeFrom.cascadeTargetFPR, resumeFrom.layerTargetFPR, resumeFrom.withTweaks);
+    }
+
     private ArrayList<String> orderedExamples() {
         ArrayList<String> examples = new ArrayList<>(trainN);
         examples.addAll(trainFaces);
@@ -501,14 +736,45 @@ public class Classifier {
             usedTestPos = countTestPos;
             System.out.println("Total number of test images: " + testN + " (pos: " + countTestPos + ", neg: " + countTestNeg + ")");
 
-            // Compute all features for train & test set
-            computeFeaturesTimed(train_dir);
-            computeFeaturesTimed(test_dir);
-            buildImagesFeatures(trainFaces, trainNonFaces, true);
-            buildImagesFeatures(testFaces, testNonFaces, false);
-
-            // Now organize all training features, so that it is easier to make requests on it
-            organizeFeatures(featureCount, orderedExamples(), Conf.ORGANIZED_FEATURES, Conf.ORGANIZED_SAMPLE);
+            CascadeSerializer.setWindowSize(width, height);
+
+            memoryBudget = MemoryBudget.plan(featureCount, trainN, testN);
+            featureCache = new FeatureCache(featureCount);
+            MemoryBudget.Tier organizedTier = memoryBudget.getOrganizedTier();
+            if (organizedTier == MemoryBudget.Tier.ON_THE_FLY) {
+                // Training features are computed when needed from integral images: only the test set is precomputed
+                System.out.println("Loading integral images of training examples (on-the-fly features)...");
+                OnTheFlyFeatures onTheFlyFeatures = new OnTheFlyFeatures(orderedExamples(), width, height);
+                System.out.println("  - Memory used: " + onTheFlyFeatures.memoryFootprint() +
+                        " (instead of " + 2 * Serializer.neededMemory(trainN) + " for organized features)");
+                trainFeatures = onTheFlyFeatures;
+
+                computeFeaturesTimed(test_dir);
+                featureCache.buildImagesFeatures(testFaces, testNonFaces, false, memoryBudget.getValidationTier());
+            }
+            else {
+                // Compute all features for train & test set
+                computeFeaturesTimed(train_dir);
+                computeFeaturesTimed(test_dir);
+                featureCache.buildImagesFeatures(testFaces, testNonFaces, false, memoryBudget.getValidationTier());
+
+                // Now organize all training features, so that it is easier to make requests on it
+                // Training features are streamed from disk: the whole examples x features matrix is never in memory
+                // Organized features read from disk are prefetched during the search, see ColumnPrefetcher
+                trainFeatures = organizeFeatures(featureCount, orderedExamples(), Conf.ORGANIZED_FEATURES, Conf.ORGANIZED_SAMPLE,
+                        organizedTier == MemoryBudget.Tier.HEAP || organizedTier == MemoryBudget.Tier.MAPPED,
+                        memoryBudget.getOrganizeMemory(), featureCache);
+            }
+            if (Conf.STUMP_BINS > 0) {
+                // Thresholds of the stumps are then restricted to the edges between bins
+                System.out.print("Quantising training features in " + Conf.STUMP_BINS + " bins...");
+                long startTime = System.currentTimeMillis();
+                binnedFeatures = BinnedFeatures.build(trainFeatures, featureCount, Conf.STUMP_BINS, Conf.BINNED_FEATURES);
+                System.out.println(" done in " + (System.currentTimeMillis() - startTime) / 1000 + "s");
+            }
+            else if (Conf.WEIGHT_TRIMMING > 0)
+                System.out.println("Ignoring Conf.WEIGHT_TRIMMING: only the binned stump search (Conf.STUMP_BINS) skips trimmed examples");
+            memoryBudget.printUsage();
         }
 
 
@@ -541,49 +807,96 @@ public class Classifier {
 
             layerMemory = new ArrayList<>();
 
+            featureSampler = new Random(Conf.FEATURE_SAMPLING_SEED);
+            samplingGapSum = 0;
+            samplingGapCount = 0;
+            if (Conf.FEATURE_SAMPLING_RATIO < 1)
+                System.out.println("  - Evaluating " + Conf.FEATURE_SAMPLING_RATIO + " of features per boosting round (growth: " +
+                        Conf.FEATURE_SAMPLING_GROWTH + " per layer, seed: " + Conf.FEATURE_SAMPLING_SEED + ")");
+
             // Init labels
             labelsTrain = new DenseMatrix(1, trainN);
             labelsTest = new DenseMatrix(1, testN);
+            trainLabels = new byte[trainN];
             for (int i = 0; i < trainN; i++) {
                 labelsTrain.set(0, i, i < countTrainPos ? 1 : -1); // face == 1 VS non-face == -1
                 labelsTest.set(0, i, i < countTestPos ? 1 : -1); // face == 1 VS non-face == -1
+                trainLabels[i] = (byte) (i < countTrainPos ? 1 : -1);
             }
         }
 
-        double accumulatedFPR = 1;
+        checkpoint = new TrainingCheckpoint();
+        checkpoint.trainDir = trainDir;
+        checkpoint.testDir = testDir;
+        checkpoint.initialPositiveWeight = initialPositiveWeight;
+        checkpoint.cascadeTargetAccuracy = cascadeTargetAccuracy;
+        checkpoint.cascadeTargetFPR = cascadeTargetFPR;
+        checkpoint.layerTargetFPR = layerTargetFPR;
+        checkpoint.withTweaks = withTweaks;
+        checkpoint.featureCount = featureCount;
+        checkpoint.countTrainPos = countTrainPos;
+        checkpoint.countTrainNeg = countTrainNeg;
+        checkpoint.countTestPos = countTestPos;
+        checkpoint.countTestNeg = countTestNeg;
+
+        accumulatedFPR = 1;
+        int firstRound = 0;
+        boolean resumingLayer = false;
+        if (resumeFrom != null) {
+            restoreCheckpoint(resumeFrom);
+            firstRound = resumeFrom.round;
+            resumingLayer = resumeFrom.layerStarted;
+            resumeFrom = null;
+        }
+
+        pool = new ForkJoinPool(Conf.TRAIN_THREADS);
+        System.out.println("  - Searching stumps with " + pool.getParallelism() + " threads");
+        if (!Conf.SHARD_WORKERS.isEmpty())
+            startCoordinator();
 
         // Training: run Cascade until we arrive to a certain wanted rate of success
         int round;
 //        for (round = 0; round < boostingRounds && accumulatedFalsePositive > GOAL; round++) {
-        for (round = 0; round < 30; round++) {
+        for (round = firstRound; round < 30; round++) {
             long startTimeFor = System.currentTimeMillis();
             System.out.println("  - Round N." + (round + 1) + ":");
 
-            // Update weights (needed because adaboost changes weights when running)
-            totalWeightPos = initialPositiveWeight;
-            totalWeightNeg = 1 - initialPositiveWeight;
-            //double averageWeightPos = totalWeightPos / countTrainPos;
-            //double averageWeightNeg = totalWeightNeg / countTrainNeg;
-            double averageWeightPos = totalWeightPos / usedTrainPos;
-            double averageWeightNeg = totalWeightNeg / usedTrainNeg;
-
-            minWeight = averageWeightPos < averageWeightNeg ? averageWeightPos : averageWeightNeg;
-            maxWeight = averageWeightPos > averageWeightNeg ? averageWeightPos : averageWeightNeg;
-            weightsTrain = DenseMatrix.zeros(1, trainN); // FIXME: do we really need to update this at each round?
-            for (int i = 0; i < trainN; i++)
-                weightsTrain.set(0, i, i < countTrainPos ? averageWeightPos : averageWeightNeg);
-//            System.out.println("    - Initialized weights:");
-//            System.out.println("      - TotW+: " + totalWeightPos + " | TotW-: " + totalWeightNeg);
-//            System.out.println("      - AverW+: " + averageWeightPos + " | AverW-: " + averageWeightNeg);
-//            System.out.println("      - MinW: " + minWeight + " | MaxW: " + maxWeight);
+            if (resumingLayer) {
+                // The checkpoint holds the weights of the layer in progress
+                resumingLayer = false;
+            } else {
+                // Workers keep their whole shard and skip removed examples instead
+                if (round > 0 && Conf.COMPACT_REMOVED_EXAMPLES && coordinator == null)
+                    compactTrainFeatures();
+
+                // Update weights (needed because adaboost changes weights when running)
+                totalWeightPos = initialPositiveWeight;
+                totalWeightNeg = 1 - initialPositiveWeight;
+                //double averageWeightPos = totalWeightPos / countTrainPos;
+                //double averageWeightNeg = totalWeightNeg / countTrainNeg;
+                double averageWeightPos = totalWeightPos / usedTrainPos;
+                double averageWeightNeg = totalWeightNeg / usedTrainNeg;
+
+                minWeight = averageWeightPos < averageWeightNeg ? averageWeightPos : averageWeightNeg;
+                maxWeight = averageWeightPos > averageWeightNeg ? averageWeightPos : averageWeightNeg;
+                weightsTrain = DenseMatrix.zeros(1, trainN); // FIXME: do we really need to update this at each round?
+                for (int i = 0; i < trainN; i++)
+                    weightsTrain.set(0, i, i < countTrainPos ? averageWeightPos : averageWeightNeg);
+//                System.out.println("    - Initialized weights:");
+//                System.out.println("      - TotW+: " + totalWeightPos + " | TotW-: " + totalWeightNeg);
+//                System.out.println("      - AverW+: " + averageWeightPos + " | AverW-: " + averageWeightNeg);
+//                System.out.println("      - MinW: " + minWeight + " | MaxW: " + maxWeight);
+            }
 
             if (!withTweaks) {
-                cascade[0] = new ArrayList<>();
+                if (cascade[0] == null) // Already started when resuming
+                    cascade[0] = new ArrayList<>();
                 int expectedSize = Math.min(20 + boostingRounds * 10, 100);
                 System.out.println("    - Expected number of weak classifiers: " + expectedSize);
-                for (int i = 0; i < expectedSize; i++) {
+                for (int i = cascade[0].size(); i < expectedSize; i++) {
                     System.out.println("    - Adaboost N." + (i+1) + "/" + expectedSize + ":");
                     adaboost(0);
+                    saveCheckpoint(0, true);
                 }
                 System.out.println("    - Number of weak classifier: " + cascade[0].size());
 
@@ -595,6 +908,7 @@ public class Classifier {
             attentionalCascade(round, cascadeTargetAccuracy, cascadeTargetFPR);
             System.out.println("    - Cascade layer computed in " + ((new Date()).getTime() - startTimeFor)/1000 + "s!");
             System.out.println("      -> Number of Weak Classifier: " + cascade[round].size());
+            memoryBudget.printUsage();
 
             layerMemory.add(cascade[round].size());
 
@@ -620,12 +934,18 @@ public class Classifier {
             CascadeSerializer.writeCascadeLayerToXML(round, cascade[round], this.tweaks.get(round));
 
             statsTests(round);
+            saveCheckpoint(round + 1, false);
         }
 
         // Serialize training
 //        Serializer.writeLayerMemory(this.layerMemory, this.tweaks, Conf.TRAIN_FEATURES);
 
         computed = true;
+        pool.shutdown();
+        pool = null;
+        stopCoordinator();
+        featureCache.freeImagesFeatures();
+        featureCache = null;
 
         System.out.println("Training done in " + ((new Date()).getTime() - startTimeTrain)/1000 + "s!");
         System.out.println("  - Cascade of " + round + " rounds");
@@ -641,7 +961,7 @@ public class Classifier {
         long vraiNegatif = 0; // a non-face
         long fauxPositif = 0; // a non-face classified as positive
 
-        ImageEvaluator imageEvaluator = new ImageEvaluator(width, height, 19, 19, 1, 1, 19, 19, 0, cascade, tweaks);
+        ImageEvaluator imageEvaluator = new ImageEvaluator(width, height, width, height, 1, 1, height, height, 0, cascade, tweaks);
 
         for (String img : streamFiles(test_dir + Conf.FACES, Conf.IMAGES_EXTENSION)) {
             ArrayList<Face> faces = imageEvaluator.getFaces(img, false);
@@ -31,10 +31,38 @@ public class Conf {
     public final static String ORGANIZED_FEATURES = TRAIN_DIR + "/organizedFeatures.data";
     public final static String ORGANIZED_SAMPLE = TRAIN_DIR + "/organizedSample.data";
     public final static String TRAIN_FEATURES = TRAIN_DIR + "/featuresValues.data";
-    public final static int TRAIN_MAX_CONCURENT_PROCESSES = 20;
+    public final static String MANIFEST = "/manifest.properties"; // DatasetManifest of the .haar files of a dataset directory
+    public final static String MANIFEST_EXTENSION = ".manifest"; // DatasetManifest of organized features, next to their sample file
+    public final static String TRAIN_CHECKPOINT = TRAIN_DIR + "/training.checkpoint";
+    public static boolean TRAIN_CHECKPOINTS = true; // Write TRAIN_CHECKPOINT after each AdaBoost iteration and cascade layer (see Classifier.resume)
+    public final static int FEATURE_SET_VERSION = 1; // Increment when feature values change, to invalidate .haar files
+    public static boolean MANIFEST_VERIFY_CHECKSUMS = false; // Also check artifact checksums, not only sizes & mtimes
+    public static int TRAIN_THREADS = Runtime.getRuntime().availableProcessors(); // Threads of the stump search (see StumpSearch)
+    public static long MEMORY_BUDGET = 0; // Memory of a training, split by utils.MemoryBudget (0 = free heap + free physical memory)
+    public static long ORGANIZE_MEMORY_BUDGET = 256L * 1024 * 1024; // Memory used by StreamingOrganizer (sorted runs + merge)
+    public static boolean OFF_HEAP_FEATURES = false; // Cache feature matrices off-heap (needs -XX:MaxDirectMemorySize)
+    public static boolean MAP_ORGANIZED_FEATURES = true; // Map organized features instead of copying them to the heap
+    public final static int IO_BUFFER_BYTES = 1 << 20; // Direct buffer of each thread reading or writing through utils.ChannelIO
+    public final static int IO_OPEN_FILES = 64; // Read channels kept open by utils.ChannelIO
+    public final static int COLUMN_WRITE_BUFFER = 1 << 20; // Consecutive columns gathered by utils.ColumnWriter before a write
+    public static boolean COLUMN_WRITE_BEHIND = true; // utils.ColumnWriter writes full buffers from a background thread
+    public static long PREFETCH_MEMORY = 64L * 1024 * 1024; // Columns read ahead by ColumnPrefetcher when training from disk (0 = off)
+    public final static String BINNED_FEATURES = TRAIN_DIR + "/binnedFeatures.data";
+    public static int STUMP_BINS = 0; // Search stumps over at most this many bins by feature (<= 256, see BinnedFeatures; 0 = exact search)
+    public static String SHARD_WORKERS = ""; // host:port of process.distributed.StumpWorker sharing the stump search, comma separated (empty = search here)
+    public static boolean COMPACT_REMOVED_EXAMPLES = true; // Drop removed examples from the training columns between cascade layers
+    public static boolean TRAIN_ON_THE_FLY = false; // Compute training features from integral images instead of organizing them
+    public static double FEATURE_SAMPLING_RATIO = 1; // Fraction of features evaluated by each boosting round (1 = exhaustive)
+    public static double FEATURE_SAMPLING_GROWTH = 1; // FEATURE_SAMPLING_RATIO is multiplied by this at each cascade layer
+    public static long FEATURE_SAMPLING_SEED = 42;
+    public static boolean FEATURE_SAMPLING_REPORT_GAP = false; // Also run the exhaustive search to report the error gap
+    public static double WEIGHT_TRIMMING = 0; // Binned stump search (STUMP_BINS > 0) skips the lightest examples holding up to this fraction of the weight (0 = off), the exact one ignores it
+    public static boolean WEIGHT_TRIMMING_REPORT_GAP = false; // Also run the search without trimming to report the error gap
     public final static boolean PATH_CREATED = createPaths();
     public final static int TRAIN_MAX_ROUNDS = 20;
     public final static String FEATURE_EXTENSION = ".haar";
+    public static boolean COMPRESS_FEATURES = false; // Write .haar files with utils.FeatureCodec (read back transparently)
+    public final static int DECODED_FEATURE_FILES = 64; // Compressed .haar files kept decoded by Serializer.readFeatureFromDisk
     public final static String IMAGES_EXTENSION = ".png";
     public final static int CUDA_DEVICE_ID = 0;
 
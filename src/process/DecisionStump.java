@@ -1,29 +1,40 @@
 package process;
 
-import jeigen.DenseMatrix;
+import process.features.ColumnPrefetcher;
+import process.features.FeatureStore;
 
-import java.util.ArrayList;
-import java.util.Objects;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
 import java.util.concurrent.Callable;
 
-import static process.features.FeatureExtractor.*;
-
 public class DecisionStump implements Callable<StumpRule> {
     // X are examples
     // Y are labels
     // V are feature values
     // (Xi, Yi, Vi) is a tuple of an image, its label (either -1 or 1), and the value the feature for image Xi.
 
-    private DenseMatrix Y;
-    private DenseMatrix weights;
+    private FeatureStore features;
+    private byte[] Y; // -1 or 1
+    private double[] weights;
     private long featureIndex;
     private int N;
     private double totalWeightPos;
     private double totalWeightNeg;
     private double minWeight;
     private boolean[] removed;
-
-    public DecisionStump(DenseMatrix labels, DenseMatrix weights, long featureIndex, int N, double totalWeightPos, double totalWeightNeg, double minWeight, boolean[] removed) {
+    private ColumnPrefetcher prefetcher; // Gives the column when it is read from disk ahead of time, null otherwise
+    private ColumnPrefetcher.Column column;
+
+    // Sorted values & example indexes of the feature: set by loadFeature from the first available source
+    private int[] V; // V is already sorted in ascending order.
+    private IntBuffer mappedV;
+    private int[] X;
+    private char[] narrowX;
+    private IntBuffer mappedX;
+    private CharBuffer mappedNarrowX;
+
+    public DecisionStump(FeatureStore features, byte[] labels, double[] weights, long featureIndex, int N, double totalWeightPos, double totalWeightNeg, double minWeight, boolean[] removed) {
+        this.features = features;
         this.Y = labels;
         this.weights = weights;
         this.featureIndex = featureIndex;
@@ -34,19 +45,66 @@ public class DecisionStump implements Callable<StumpRule> {
         this.removed = removed;
     }
 
+    public DecisionStump(FeatureStore features, byte[] labels, double[] weights, long featureIndex, int N, double totalWeightPos, double totalWeightNeg, double minWeight, boolean[] removed, ColumnPrefetcher prefetcher) {
+        this(features, labels, weights, featureIndex, N, totalWeightPos, totalWeightNeg, minWeight, removed);
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Mapped columns and example indexes kept in memory as chars are read as is: no copy for each feature
+     */
+    private void loadFeature() {
+        if (prefetcher != null) {
+            column = prefetcher.take(featureIndex);
+            X = column.examplesIndexes;
+            V = column.values;
+            return;
+        }
+        mappedV = features.valuesView(featureIndex);
+        if (mappedV != null) {
+            mappedX = features.examplesIndexesView(featureIndex);
+            mappedNarrowX = features.narrowExamplesIndexesView(featureIndex);
+            return;
+        }
+        narrowX = features.narrowExamplesIndexes(featureIndex);
+        if (narrowX != null) {
+            V = features.values(featureIndex);
+            return;
+        }
+        int[][] sortedFeature = features.sortedColumn(featureIndex);
+        X = sortedFeature[0];
+        V = sortedFeature[1];
+    }
+
+    // The source does not change during a call: these branches are always predicted
+    private int value(int i) {
+        return V != null ? V[i] : mappedV.get(i);
+    }
+
+    private int exampleIndex(int i) {
+        if (X != null)
+            return X[i];
+        if (narrowX != null)
+            return narrowX[i];
+        if (mappedX != null)
+            return mappedX.get(i);
+        return mappedNarrowX.get(i);
+    }
+
     @Override
     public StumpRule call() throws Exception {
         // The best StumpRule is the one with the lower error. This is equivalent to find the one which best
         // separates positive and negative examples.
         //
-        // For N training example, there is exactly N+1 possible StumpRule.
+        // For N training example, there is exactly N+1 possible StumpRule: before the smallest value, between two
+        // different consecutive values, and after the largest value. Thresholds and margins are computed when the scan
+        // reaches them, and the best rule is only kept as primitives: nothing is allocated for each candidate.
         //
         // To compute the error, we use totalWeightPos & totalWeightNeg, as a result,
         // the best StumpRule returned is (almost?) always different.
 
         // Get needed values
-        int[] X = getFeatureExamplesIndexes(featureIndex, N);
-        int[] V = getFeatureValues(featureIndex, N); // V is already sorted in ascending order.
+        loadFeature();
 
         // Left & Right hand of the stump
         double leftWeightPos = 0;
@@ -54,22 +112,14 @@ public class DecisionStump implements Callable<StumpRule> {
         double rightWeightPos = totalWeightPos;
         double rightWeightNeg = totalWeightNeg;
 
-        // First compute all threshold and margins between all values of V, but also before (-1) and after (+1) V values!
-        // We will then find the best threshold in this list based on the error it gives
-        ArrayList<Double> thresholds = new ArrayList<>(N + 1);
-        ArrayList<Double> margins = new ArrayList<>(N + 1);
-        {
-            thresholds.add((double) (V[0] - 1));
-            margins.add((double) -1);
-            for (int i = 0; i < N-1; i++) {
-                thresholds.add(((double) (V[i] + V[i + 1])) / 2.0d);
-                margins.add((double) V[i + 1] - V[i]);
-            }
-            thresholds.add((double) (V[N-1] + 1));
-            margins.add((double) 0);
-        }
-        StumpRule best = new StumpRule(featureIndex, 2, thresholds.get(0),margins.get(0), 0);
-        StumpRule current = StumpRule.deepCopy(best);
+        // Current rule: threshold before (-1) all values of V
+        double threshold = (double) (value(0) - 1);
+        double margin = -1;
+
+        double bestError = 2;
+        double bestThreshold = threshold;
+        double bestMargin = margin;
+        int bestToggle = 0;
 
         // Go through all these observations one after another
         int iterator = -1;
@@ -78,24 +128,24 @@ public class DecisionStump implements Callable<StumpRule> {
             double errorMinus = rightWeightPos + leftWeightNeg;
 
             double Epsilon_hat;
+            int toggle;
             if (errorPlus < errorMinus) {
                 Epsilon_hat = errorPlus;
-                current.toggle = 1;
+                toggle = 1;
             } else {
                 Epsilon_hat = errorMinus;
-                current.toggle = -1;
+                toggle = -1;
             }
 
-            if (Epsilon_hat < minWeight * 0.9) {
-                current.error = minWeight * 0.9;
-//                System.out.println("Epsilon_hat: " + Epsilon_hat + " minWeight:" + minWeight);
-            }
-            else
-                current.error = Epsilon_hat;
-//            current.error = Epsilon_hat < minWeight * 0.9 ? 0 : Epsilon_hat;
+            double error = Epsilon_hat < minWeight * 0.9 ? minWeight * 0.9 : Epsilon_hat;
 
-            if (current.compare(best))
-                best = StumpRule.deepCopy(current);
+            // Same order as StumpRule.compare: lower error first, then wider margin
+            if (error < bestError || (error == bestError && margin > bestMargin)) {
+                bestError = error;
+                bestThreshold = threshold;
+                bestMargin = margin;
+                bestToggle = toggle;
+            }
 
             iterator++;
 
@@ -107,32 +157,64 @@ public class DecisionStump implements Callable<StumpRule> {
                 break;
 
             while (true) {
-                int exampleIndex = X[iterator];
+                int exampleIndex = exampleIndex(iterator);
                 if (!removed[exampleIndex]) {
-                    double label = (int) Y.get(0, exampleIndex); // FIXME: why casting to int?
-                    double weight = weights.get(0, exampleIndex);
+                    double weight = weights[exampleIndex];
 
-                    if (label < 0) {
-                        leftWeightNeg += weight; // leftWeightNeg += weight
-                        rightWeightNeg -= weight; // rightWeightNeg -= weight
+                    if (Y[exampleIndex] < 0) {
+                        leftWeightNeg += weight;
+                        rightWeightNeg -= weight;
                     } else {
-                        leftWeightPos += weight; // leftWeightPos += weight
-                        rightWeightPos -= weight; // rightWeightPos -= weight
+                        leftWeightPos += weight;
+                        rightWeightPos -= weight;
                     }
                 }
                 // It is possible to have the same feature values from different examples
                 // if a new threshold can be found, break
                 // two cases are possible:
                 //   - Either it is the last observation:
-                if ((iterator == N - 1) || (!Objects.equals(V[iterator], V[iterator + 1])))
+                if ((iterator == N - 1) || (value(iterator) != value(iterator + 1)))
                     break;
 
                 iterator++;
             }
 
-            current.threshold = thresholds.get(iterator+1);
-            current.margin = margins.get(iterator+1);
+            // Threshold between this value and the next one, or after (+1) all values of V
+            if (iterator == N - 1) {
+                threshold = (double) (value(N - 1) + 1);
+                margin = 0;
+            } else {
+                int previous = value(iterator);
+                int next = value(iterator + 1);
+                threshold = ((double) (previous + next)) / 2.0d;
+                margin = (double) next - previous;
+            }
+        }
+        if (column != null)
+            prefetcher.release(column);
+        return new StumpRule(featureIndex, bestError, bestThreshold, bestMargin, bestToggle);
+    }
+
+    /**
+     * Error of a rule on all the examples not removed, as call computes it: used to score a rule found with trimmed
+     * weights (see WeightTrimming)
+     */
+    public static double error(FeatureStore features, byte[] labels, double[] weights, boolean[] removed,
+                               double totalWeightPos, double totalWeightNeg, double minWeight, StumpRule rule) {
+        int[][] column = features.column(rule.featureIndex);
+        double leftWeightPos = 0;
+        double leftWeightNeg = 0;
+        for (int i = 0; i < column[0].length; i++) {
+            int exampleIndex = column[0][i];
+            if (removed[exampleIndex] || column[1][i] > rule.threshold)
+                continue;
+            if (labels[exampleIndex] < 0)
+                leftWeightNeg += weights[exampleIndex];
+            else
+                leftWeightPos += weights[exampleIndex];
         }
-        return best;
+        double error = rule.toggle == 1 ? leftWeightPos + (totalWeightNeg - leftWeightNeg)
+                : (totalWeightPos - leftWeightPos) + leftWeightNeg;
+        return error < minWeight * 0.9 ? minWeight * 0.9 : error;
     }
 }
@@ -80,7 +80,7 @@ public class ImageEvaluator {
         }
         else
             this.slidingWindows = getAllRectangles(imgWidth, imgHeight, coeff, xDisplacer, yDisplacer, minSlidingSize, maxSlidingSize);
-        this.haarDetector = new HaarDetector(neededHaarValues, trainHeight, imgWidth, imgHeight, slidingWindows);
+        this.haarDetector = new HaarDetector(neededHaarValues, trainWidth, trainHeight, imgWidth, imgHeight, slidingWindows);
     }
 
     public ArrayList<Face> getFaces(String fileName, boolean postProcess) {
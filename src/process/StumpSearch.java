@@ -0,0 +1,115 @@
+package process;
+
+import process.features.BinnedFeatures;
+import process.features.ColumnPrefetcher;
+import process.features.FeatureStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Searches the best DecisionStump of a list of features in parallel (fork-join over ranges of the list).
+ *
+ * The list is cut into contiguous blocks of at most FEATURES_BY_TASK features. Each block is scanned by one task,
+ * which keeps its own best rule; the rules of the blocks are then reduced in list order, keeping the earlier one on
+ * ties, so the result does not depend on how the blocks were scheduled: it is the rule a sequential scan would find.
+ *
+ * Blocks are forked in list order, so the pool takes them roughly in the order a ColumnPrefetcher reads the columns.
+ *
+ * When binned features are given (see Conf.STUMP_BINS), each feature is evaluated by a BinnedDecisionStump instead.
+ */
+public class StumpSearch extends RecursiveTask<StumpRule> {
+    private static final long serialVersionUID = 1L;
+    private static final int FEATURES_BY_TASK = 256;
+    private static final int TASKS_BY_THREAD = 4; // Smaller blocks when there are few features, to keep threads busy
+
+    private final Params params;
+    private final int from;
+    private final int to;
+
+    /**
+     * Inputs shared by all the stumps of a search
+     */
+    private static class Params {
+        FeatureStore features;
+        BinnedFeatures binned;
+        byte[] labels;
+        double[] weights;
+        List<Integer> featureIndexes;
+        double totalWeightPos;
+        double totalWeightNeg;
+        double minWeight;
+        boolean[] removed;
+        int[] liveExamples; // Examples not removed and of non-zero weight, for the binned search
+        ColumnPrefetcher prefetcher;
+        int featuresByTask;
+    }
+
+    private StumpSearch(Params params, int from, int to) {
+        this.params = params;
+        this.from = from;
+        this.to = to;
+    }
+
+    public static StumpRule search(ForkJoinPool pool, FeatureStore features, BinnedFeatures binned, byte[] labels, double[] weights,
+                                   List<Integer> featureIndexes, double totalWeightPos, double totalWeightNeg,
+                                   double minWeight, boolean[] removed, ColumnPrefetcher prefetcher) {
+        Params params = new Params();
+        params.features = features;
+        params.binned = binned;
+        params.labels = labels;
+        params.weights = weights;
+        params.featureIndexes = featureIndexes;
+        params.totalWeightPos = totalWeightPos;
+        params.totalWeightNeg = totalWeightNeg;
+        params.minWeight = minWeight;
+        params.removed = removed;
+        params.liveExamples = binned != null ? BinnedDecisionStump.liveExamples(removed, weights) : null;
+        params.prefetcher = prefetcher;
+        int tasks = pool.getParallelism() * TASKS_BY_THREAD;
+        params.featuresByTask = Math.max(1, Math.min(FEATURES_BY_TASK, (featureIndexes.size() + tasks - 1) / tasks));
+        return pool.invoke(new StumpSearch(params, 0, featureIndexes.size()));
+    }
+
+    @Override
+    protected StumpRule compute() {
+        if (to - from > params.featuresByTask) {
+            ArrayList<StumpSearch> blocks = new ArrayList<>();
+            for (int start = from; start < to; start += params.featuresByTask)
+                blocks.add(new StumpSearch(params, start, Math.min(to, start + params.featuresByTask)));
+            // Not invokeAll: it forks the last block first, and other threads would steal from the end of the list
+            for (StumpSearch block : blocks)
+                block.fork();
+
+            StumpRule best = null;
+            for (StumpSearch block : blocks)
+                best = better(best, block.join());
+            return best;
+        }
+
+        StumpRule best = null;
+        for (int i = from; i < to; i++) {
+            Callable<StumpRule> stump = params.binned != null
+                    ? new BinnedDecisionStump(params.binned, params.labels, params.weights, params.featureIndexes.get(i),
+                            params.liveExamples, params.totalWeightPos, params.totalWeightNeg, params.minWeight)
+                    : new DecisionStump(params.features, params.labels, params.weights, params.featureIndexes.get(i),
+                            params.features.getN(), params.totalWeightPos, params.totalWeightNeg, params.minWeight, params.removed, params.prefetcher);
+            try {
+                best = better(best, stump.call());
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to evaluate feature " + params.featureIndexes.get(i), e);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * current replaces best only if it is strictly better (see StumpRule.compare)
+     */
+    private static StumpRule better(StumpRule best, StumpRule current) {
+        return best == null || current.compare(best) ? current : best;
+    }
+}
@@ -0,0 +1,254 @@
+package process;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static utils.Serializer.readFlags;
+import static utils.Serializer.writeFlags;
+
+/**
+ * State of a Classifier training between two AdaBoost iterations, written by Classifier after each iteration and each
+ * cascade layer (see Conf.TRAIN_CHECKPOINT), so that Classifier.resume continues a training that crashed where it
+ * stopped, with the same results.
+ *
+ * Binary file (DataStreams): a magic number and a version, the training parameters, then the state. A checkpoint is
+ * written to a temporary file, synced, then moved over the previous one: a crash leaves either checkpoint, complete.
+ */
+public class TrainingCheckpoint {
+    private static final int MAGIC = 0x564A434B; // "VJCK"
+    private static final int VERSION = 1;
+
+    // Training parameters
+    String trainDir;
+    String testDir;
+    float initialPositiveWeight;
+    float cascadeTargetAccuracy;
+    float cascadeTargetFPR;
+    float layerTargetFPR;
+    boolean withTweaks;
+
+    // Checked against the dataset when resuming
+    long featureCount;
+    int countTrainPos;
+    int countTrainNeg;
+    int countTestPos;
+    int countTestNeg;
+
+    int round; // Cascade layer to continue
+    boolean layerStarted; // True if cascade[round] has iterations, false if the layer has not started yet
+    ArrayList<StumpRule>[] cascade; // Layers 0..round, null when not started
+    ArrayList<Float> tweaks;
+    ArrayList<Integer> layerMemory;
+    double accumulatedFPR;
+
+    double[] weightsTrain;
+    double totalWeightPos;
+    double totalWeightNeg;
+    double minWeight;
+    double maxWeight;
+
+    boolean[] removedFromTrain;
+    boolean[] removedFromTest;
+    boolean[] stumpBlacklist;
+    int usedTrainPos;
+    int usedTrainNeg;
+    int usedTestPos;
+    int usedTestNeg;
+
+    Random featureSampler;
+    double samplingGapSum;
+    int samplingGapCount;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static ArrayList<StumpRule>[] newCascade(int layers) {
+        return (ArrayList<StumpRule>[]) new ArrayList[layers];
+    }
+
+    /**
+     * Writes the checkpoint to path atomically. Returns false if it could not be written: the previous checkpoint, if
+     * any, is left as it was.
+     */
+    public boolean write(String path) {
+        String tmp = path + ".tmp";
+        try (FileOutputStream file = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeUTF(trainDir);
+            out.writeUTF(testDir);
+            out.writeFloat(initialPositiveWeight);
+            out.writeFloat(cascadeTargetAccuracy);
+            out.writeFloat(cascadeTargetFPR);
+            out.writeFloat(layerTargetFPR);
+            out.writeBoolean(withTweaks);
+
+            out.writeLong(featureCount);
+            out.writeInt(countTrainPos);
+            out.writeInt(countTrainNeg);
+            out.writeInt(countTestPos);
+            out.writeInt(countTestNeg);
+
+            out.writeInt(round);
+            out.writeBoolean(layerStarted);
+            out.writeInt(cascade.length);
+            for (ArrayList<StumpRule> layer : cascade) {
+                out.writeInt(layer == null ? -1 : layer.size());
+                if (layer != null)
+                    for (StumpRule rule : layer) {
+                        out.writeLong(rule.featureIndex);
+                        out.writeDouble(rule.error);
+                        out.writeDouble(rule.threshold);
+                        out.writeDouble(rule.margin);
+                        out.writeInt(rule.toggle);
+                    }
+            }
+            out.writeInt(tweaks.size());
+            for (float tweak : tweaks)
+                out.writeFloat(tweak);
+            out.writeInt(layerMemory.size());
+            for (int size : layerMemory)
+                out.writeInt(size);
+            out.writeDouble(accumulatedFPR);
+
+            out.writeInt(weightsTrain.length);
+            for (double weight : weightsTrain)
+                out.writeDouble(weight);
+            out.writeDouble(totalWeightPos);
+            out.writeDouble(totalWeightNeg);
+            out.writeDouble(minWeight);
+            out.writeDouble(maxWeight);
+
+            writeFlags(out, removedFromTrain);
+            writeFlags(out, removedFromTest);
+            writeFlags(out, stumpBlacklist);
+            out.writeInt(usedTrainPos);
+            out.writeInt(usedTrainNeg);
+            out.writeInt(usedTestPos);
+            out.writeInt(usedTestNeg);
+
+            // Random only exposes its state through serialization
+            ByteArrayOutputStream sampler = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(sampler)) {
+                objectOut.writeObject(featureSampler);
+            }
+            out.writeInt(sampler.size());
+            sampler.writeTo(out);
+            out.writeDouble(samplingGapSum);
+            out.writeInt(samplingGapCount);
+
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            System.err.println("Could not write training checkpoint " + tmp);
+            e.printStackTrace();
+            return false;
+        }
+
+        try {
+            Files.move(Paths.get(tmp), Paths.get(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not replace training checkpoint " + path);
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    public static TrainingCheckpoint read(String path) {
+        TrainingCheckpoint checkpoint = new TrainingCheckpoint();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a training checkpoint");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported checkpoint version " + version);
+
+            checkpoint.trainDir = in.readUTF();
+            checkpoint.testDir = in.readUTF();
+            checkpoint.initialPositiveWeight = in.readFloat();
+            checkpoint.cascadeTargetAccuracy = in.readFloat();
+            checkpoint.cascadeTargetFPR = in.readFloat();
+            checkpoint.layerTargetFPR = in.readFloat();
+            checkpoint.withTweaks = in.readBoolean();
+
+            checkpoint.featureCount = in.readLong();
+            checkpoint.countTrainPos = in.readInt();
+            checkpoint.countTrainNeg = in.readInt();
+            checkpoint.countTestPos = in.readInt();
+            checkpoint.countTestNeg = in.readInt();
+
+            checkpoint.round = in.readInt();
+            checkpoint.layerStarted = in.readBoolean();
+            checkpoint.cascade = newCascade(in.readInt());
+            for (int layer = 0; layer < checkpoint.cascade.length; layer++) {
+                int size = in.readInt();
+                if (size < 0)
+                    continue;
+                checkpoint.cascade[layer] = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    long featureIndex = in.readLong();
+                    double error = in.readDouble();
+                    double threshold = in.readDouble();
+                    double margin = in.readDouble();
+                    int toggle = in.readInt();
+                    checkpoint.cascade[layer].add(new StumpRule(featureIndex, error, threshold, margin, toggle));
+                }
+            }
+            int count = in.readInt();
+            checkpoint.tweaks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                checkpoint.tweaks.add(in.readFloat());
+            count = in.readInt();
+            checkpoint.layerMemory = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                checkpoint.layerMemory.add(in.readInt());
+            checkpoint.accumulatedFPR = in.readDouble();
+
+            checkpoint.weightsTrain = new double[in.readInt()];
+            for (int i = 0; i < checkpoint.weightsTrain.length; i++)
+                checkpoint.weightsTrain[i] = in.readDouble();
+            checkpoint.totalWeightPos = in.readDouble();
+            checkpoint.totalWeightNeg = in.readDouble();
+            checkpoint.minWeight = in.readDouble();
+            checkpoint.maxWeight = in.readDouble();
+
+            checkpoint.removedFromTrain = readFlags(in);
+            checkpoint.removedFromTest = readFlags(in);
+            checkpoint.stumpBlacklist = readFlags(in);
+            checkpoint.usedTrainPos = in.readInt();
+            checkpoint.usedTrainNeg = in.readInt();
+            checkpoint.usedTestPos = in.readInt();
+            checkpoint.usedTestNeg = in.readInt();
+
+            byte[] sampler = new byte[in.readInt()];
+            in.readFully(sampler);
+            try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(sampler))) {
+                checkpoint.featureSampler = (Random) objectIn.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            checkpoint.samplingGapSum = in.readDouble();
+            checkpoint.samplingGapCount = in.readInt();
+        } catch (IOException e) {
+            System.err.println("Could not read training checkpoint " + path);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return checkpoint;
+    }
+}
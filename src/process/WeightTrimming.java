@@ -0,0 +1,70 @@
+package process;
+
+import java.util.Arrays;
+
+/**
+ * Weight trimming (see Conf.WEIGHT_TRIMMING): the weights the binned stump search sees, where the examples of lowest
+ * weight get 0, as long as their total weight stays below a fraction of the weight of the examples not removed.
+ * Examples sharing the weight at the cut are all kept.
+ *
+ * Trimmed examples are skipped by BinnedDecisionStump (see BinnedDecisionStump.liveExamples); they are still predicted
+ * and reweighted as usual. The sorted scan of DecisionStump visits every entry of a column whatever its weight, so it
+ * is not trimmed.
+ */
+public class WeightTrimming {
+    public final double[] weights; // The given weights if nothing is trimmed, a copy otherwise
+    public final double weightPos; // totalWeightPos minus the weight of trimmed positive examples
+    public final double weightNeg; // totalWeightNeg minus the weight of trimmed negative examples
+    public final int trimmedCount;
+
+    private WeightTrimming(double[] weights, double weightPos, double weightNeg, int trimmedCount) {
+        this.weights = weights;
+        this.weightPos = weightPos;
+        this.weightNeg = weightNeg;
+        this.trimmedCount = trimmedCount;
+    }
+
+    public static WeightTrimming trim(double[] weights, byte[] labels, boolean[] removed,
+                                      double totalWeightPos, double totalWeightNeg, double trimming) {
+        WeightTrimming none = new WeightTrimming(weights, totalWeightPos, totalWeightNeg, 0);
+        if (trimming <= 0)
+            return none;
+
+        double[] sorted = new double[weights.length];
+        int count = 0;
+        for (int i = 0; i < weights.length; i++)
+            if (!removed[i])
+                sorted[count++] = weights[i];
+        Arrays.sort(sorted, 0, count);
+        // Summed in the order of the cut, so that a ratio of 1 keeps everything despite rounding
+        double mass = 0;
+        for (int i = 0; i < count; i++)
+            mass += sorted[i];
+
+        double budget = trimming * mass;
+        double cumulated = 0;
+        int k = 0;
+        while (k < count && cumulated + sorted[k] <= budget)
+            cumulated += sorted[k++];
+        if (k == 0 || k == count)
+            return none;
+        double cut = sorted[k]; // Examples lighter than this one fit in the budget
+
+        double[] trimmed = weights.clone();
+        double weightPos = totalWeightPos;
+        double weightNeg = totalWeightNeg;
+        int trimmedCount = 0;
+        for (int i = 0; i < trimmed.length; i++) {
+            double weight = trimmed[i];
+            if (removed[i] || weight >= cut)
+                continue;
+            trimmed[i] = 0;
+            trimmedCount++;
+            if (labels[i] < 0)
+                weightNeg -= weight;
+            else
+                weightPos -= weight;
+        }
+        return new WeightTrimming(trimmed, weightPos, weightNeg, trimmedCount);
+    }
+}
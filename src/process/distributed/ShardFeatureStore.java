@@ -0,0 +1,39 @@
+package process.distributed;
+
+import process.features.FeatureStore;
+import utils.Serializer;
+
+/**
+ * The sorted columns of features [from, to[ only, loaded once in heap arrays from the organized files: what a
+ * StumpWorker searches.
+ */
+public class ShardFeatureStore implements FeatureStore {
+    private final int N;
+    private final long from;
+    private final int[][] values;
+    private final int[][] examplesIndexes;
+
+    public ShardFeatureStore(String features, String samples, int N, long from, long to) {
+        this.N = N;
+        this.from = from;
+        this.values = new int[(int) (to - from)][];
+        this.examplesIndexes = new int[(int) (to - from)][];
+        for (int i = 0; i < values.length; i++) {
+            long featureIndex = from + i;
+            values[i] = Serializer.readArrayFromDisk(features, featureIndex * N, (featureIndex + 1) * N);
+            examplesIndexes[i] = Serializer.readIndexesFromDisk(samples, featureIndex * N, (featureIndex + 1) * N, N);
+        }
+    }
+
+    @Override
+    public int getN() {
+        return N;
+    }
+
+    @Override
+    public int[][] sortedColumn(long featureIndex) {
+        if (featureIndex < from || featureIndex >= from + values.length)
+            throw new IllegalArgumentException("Feature " + featureIndex + " is not in shard [" + from + ", " + (from + values.length) + "[");
+        return new int[][]{examplesIndexes[(int) (featureIndex - from)], values[(int) (featureIndex - from)]};
+    }
+}
@@ -0,0 +1,133 @@
+package process.distributed;
+
+import process.StumpRule;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static process.distributed.StumpProtocol.*;
+import static utils.Serializer.writeFlags;
+
+/**
+ * Shares the stump search between StumpWorker processes (see Conf.SHARD_WORKERS), so that the organized features are
+ * read with the memory bandwidth of several JVMs or machines.
+ *
+ * Features are split in contiguous shards, one by worker, loaded once by load. At each boosting iteration, search
+ * sends the weights and removed examples to all workers, which search their features in parallel, and reduces their
+ * best rules in shard order: as shards are contiguous, the result is the one of a search in this JVM.
+ */
+public class StumpCoordinator implements Closeable {
+    private final String[] workers;
+    private final Socket[] sockets;
+    private final DataInputStream[] ins;
+    private final DataOutputStream[] outs;
+    private long featureCount;
+
+    /**
+     * Connects to the given workers, as host:port
+     */
+    public StumpCoordinator(List<String> workers) throws IOException {
+        this.workers = workers.toArray(new String[0]);
+        this.sockets = new Socket[workers.size()];
+        this.ins = new DataInputStream[workers.size()];
+        this.outs = new DataOutputStream[workers.size()];
+        for (int i = 0; i < sockets.length; i++) {
+            String[] hostPort = this.workers[i].trim().split(":");
+            if (hostPort.length != 2)
+                throw new IllegalArgumentException("Worker must be host:port: " + this.workers[i]);
+            sockets[i] = new Socket(hostPort[0], Integer.parseInt(hostPort[1]));
+            sockets[i].setTcpNoDelay(true);
+            ins[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+            outs[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+        }
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    private long shardStart(int worker) {
+        return featureCount * worker / workers.length;
+    }
+
+    /**
+     * Makes each worker load its shard of the organized files. Paths are sent absolute: workers on other machines
+     * need them at the same place.
+     */
+    public void load(String features, String samples, long featureCount, int N, byte[] labels) throws IOException {
+        this.featureCount = featureCount;
+        for (int i = 0; i < workers.length; i++) {
+            outs[i].writeInt(LOAD);
+            outs[i].writeUTF(new File(features).getAbsolutePath());
+            outs[i].writeUTF(new File(samples).getAbsolutePath());
+            outs[i].writeLong(featureCount);
+            outs[i].writeInt(N);
+            outs[i].writeLong(shardStart(i));
+            outs[i].writeLong(shardStart(i + 1));
+            writeBytes(outs[i], labels);
+            outs[i].flush();
+        }
+        // Workers load their shard at the same time
+        for (int i = 0; i < workers.length; i++)
+            if (readStatus(ins[i], workers[i]) != OK)
+                throw new IOException("Worker " + workers[i] + " could not load its shard");
+    }
+
+    /**
+     * Best stump of the given features, in ascending order (as Classifier samples them)
+     */
+    public StumpRule search(List<Integer> features, double[] weights, boolean[] removed,
+                            double totalWeightPos, double totalWeightNeg, double minWeight) throws IOException {
+        ArrayList<List<Integer>> shards = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++)
+            shards.add(new ArrayList<>());
+        int worker = 0;
+        for (int feature : features) {
+            while (feature >= shardStart(worker + 1))
+                worker++;
+            shards.get(worker).add(feature);
+        }
+
+        for (int i = 0; i < workers.length; i++) {
+            outs[i].writeInt(SEARCH);
+            outs[i].writeDouble(totalWeightPos);
+            outs[i].writeDouble(totalWeightNeg);
+            outs[i].writeDouble(minWeight);
+            writeDoubles(outs[i], weights);
+            writeFlags(outs[i], removed);
+            writeFeatures(outs[i], shards.get(i));
+            outs[i].flush();
+        }
+
+        StumpRule best = null;
+        for (int i = 0; i < workers.length; i++) {
+            if (readStatus(ins[i], workers[i]) != RULE)
+                continue;
+            StumpRule current = readRule(ins[i]);
+            if (best == null || current.compare(best))
+                best = current;
+        }
+        return best;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                outs[i].writeInt(CLOSE);
+                outs[i].flush();
+            } catch (IOException e) {
+                // Worker already gone
+            }
+            sockets[i].close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package process.distributed;
+
+import process.StumpRule;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Messages between a StumpCoordinator and its StumpWorkers, over a TCP connection (big-endian, DataStreams):
+ *
+ * - LOAD    featuresPath, samplesPath, featureCount, N, shard [from, to[, labels
+ *           -> OK once the shard is loaded
+ * - SEARCH  totalWeightPos, totalWeightNeg, minWeight, weights, removed (see Serializer.writeFlags), features of the
+ *           shard to evaluate
+ *           -> RULE with the best StumpRule of these features, or NONE if there was none
+ * - CLOSE   the worker waits for a new coordinator
+ *
+ * A worker answers ERROR followed by a message when a request fails.
+ */
+public class StumpProtocol {
+    public static final int LOAD = 1;
+    public static final int SEARCH = 2;
+    public static final int CLOSE = 3;
+
+    public static final int OK = 10;
+    public static final int RULE = 11;
+    public static final int NONE = 12;
+    public static final int ERROR = 13;
+
+    public static void writeBytes(DataOutputStream out, byte[] values) throws IOException {
+        out.writeInt(values.length);
+        out.write(values);
+    }
+
+    public static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] values = new byte[in.readInt()];
+        in.readFully(values);
+        return values;
+    }
+
+    public static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values)
+            out.writeDouble(value);
+    }
+
+    public static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readDouble();
+        return values;
+    }
+
+    public static void writeFeatures(DataOutputStream out, List<Integer> features) throws IOException {
+        out.writeInt(features.size());
+        for (int feature : features)
+            out.writeInt(feature);
+    }
+
+    public static void writeRule(DataOutputStream out, StumpRule rule) throws IOException {
+        out.writeLong(rule.featureIndex);
+        out.writeDouble(rule.error);
+        out.writeDouble(rule.threshold);
+        out.writeDouble(rule.margin);
+        out.writeInt(rule.toggle);
+    }
+
+    public static StumpRule readRule(DataInputStream in) throws IOException {
+        long featureIndex = in.readLong();
+        double error = in.readDouble();
+        double threshold = in.readDouble();
+        double margin = in.readDouble();
+        int toggle = in.readInt();
+        return new StumpRule(featureIndex, error, threshold, margin, toggle);
+    }
+
+    /**
+     * Reads the status of a reply, and fails with the worker's message if it is an error
+     */
+    public static int readStatus(DataInputStream in, String worker) throws IOException {
+        int status = in.readInt();
+        if (status == ERROR)
+            throw new IOException("Worker " + worker + " failed: " + in.readUTF());
+        return status;
+    }
+}
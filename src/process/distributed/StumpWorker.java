@@ -0,0 +1,144 @@
+package process.distributed;
+
+import process.Conf;
+import process.StumpRule;
+import process.StumpSearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import static process.distributed.StumpProtocol.*;
+import static utils.Serializer.readFlags;
+
+/**
+ * Process owning a shard of the organized features, for a StumpCoordinator: it loads the shard once, then searches
+ * the best stump of its features with the weights the coordinator sends at each boosting iteration.
+ *
+ * Usage: java -cp ... process.distributed.StumpWorker port
+ *
+ * The organized files must be readable by the worker at the path the coordinator gives (same machine or shared
+ * file system). A worker serves one coordinator at a time.
+ */
+public class StumpWorker {
+    private final ServerSocket server;
+    private final ForkJoinPool pool = new ForkJoinPool(Conf.TRAIN_THREADS);
+
+    private ShardFeatureStore shard;
+    private byte[] labels;
+
+    public StumpWorker(ServerSocket server) {
+        this.server = server;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: StumpWorker port");
+            System.exit(1);
+        }
+        try {
+            StumpWorker worker = new StumpWorker(new ServerSocket(Integer.parseInt(args[0])));
+            System.out.println("Stump worker listening on port " + args[0]);
+            worker.serve();
+        } catch (IOException e) {
+            System.err.println("Could not listen on port " + args[0]);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Serves coordinators one after another, until close
+     */
+    public void serve() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                socket.setTcpNoDelay(true);
+                handle(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            } catch (IOException e) {
+                if (!server.isClosed())
+                    e.printStackTrace();
+            }
+        }
+        pool.shutdown();
+    }
+
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void handle(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            int request;
+            try {
+                request = in.readInt();
+            } catch (EOFException e) {
+                return; // Coordinator gone
+            }
+            if (request == CLOSE)
+                return;
+
+            try {
+                if (request == LOAD)
+                    load(in, out);
+                else if (request == SEARCH)
+                    search(in, out);
+                else
+                    throw new IllegalArgumentException("Unknown request " + request);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                out.writeInt(ERROR);
+                out.writeUTF(String.valueOf(e));
+            }
+            out.flush();
+        }
+    }
+
+    private void load(DataInputStream in, DataOutputStream out) throws IOException {
+        String features = in.readUTF();
+        String samples = in.readUTF();
+        long featureCount = in.readLong();
+        int N = in.readInt();
+        long from = in.readLong();
+        long to = in.readLong();
+        labels = readBytes(in);
+
+        long startTime = System.currentTimeMillis();
+        shard = null; // The previous shard can be collected while loading
+        shard = new ShardFeatureStore(features, samples, N, from, to);
+        System.out.println("Loaded features [" + from + ", " + to + "[ of " + featureCount + " (" + N + " examples) in " +
+                (System.currentTimeMillis() - startTime) / 1000 + "s");
+        out.writeInt(OK);
+    }
+
+    private void search(DataInputStream in, DataOutputStream out) throws IOException {
+        double totalWeightPos = in.readDouble();
+        double totalWeightNeg = in.readDouble();
+        double minWeight = in.readDouble();
+        double[] weights = readDoubles(in);
+        boolean[] removed = readFlags(in);
+        int count = in.readInt();
+        ArrayList<Integer> features = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            features.add(in.readInt());
+
+        if (shard == null)
+            throw new IllegalStateException("No shard loaded");
+        if (features.isEmpty()) {
+            out.writeInt(NONE);
+            return;
+        }
+        StumpRule best = StumpSearch.search(pool, shard, null, labels, weights, features,
+                totalWeightPos, totalWeightNeg, minWeight, removed, null);
+        out.writeInt(RULE);
+        writeRule(out, best);
+    }
+}
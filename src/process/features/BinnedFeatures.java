@@ -0,0 +1,147 @@
+package process.features;
+
+import utils.ColumnWriter;
+import utils.MappedColumns;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Training features quantised in at most 256 bins each (see Conf.STUMP_BINS), for the histogram stump search
+ * (see BinnedDecisionStump).
+ *
+ * Bins are built once from the sorted columns of a FeatureStore: each bin holds about the same number of examples,
+ * and all the examples of a value fall in the same bin, so bin b only holds values in [lowest(b), highest(b)] and
+ * highest(b) < lowest(b + 1). A feature with at most as many distinct values as bins keeps one bin by value.
+ *
+ * The bin of each example is written as a byte, in example order, to a file of featureCount columns of N bytes
+ * which is then mapped (see MappedColumns): a search reads N bytes by feature instead of N values and N indexes.
+ * Bounds of the bins are kept in memory.
+ */
+public class BinnedFeatures {
+    private static final int FEATURES_BY_TASK = 256;
+
+    private final int N;
+    private final int[][] lowest;  // lowest[f][b]: smallest value of bin b of feature f
+    private final int[][] highest; // highest[f][b]: largest value of bin b of feature f
+    private final MappedColumns bins;
+
+    private BinnedFeatures(int N, int[][] lowest, int[][] highest, MappedColumns bins) {
+        this.N = N;
+        this.lowest = lowest;
+        this.highest = highest;
+        this.bins = bins;
+    }
+
+    /**
+     * Quantises all the features of store in at most binCount bins (at most 256), and writes their bins to filePath
+     */
+    public static BinnedFeatures build(FeatureStore store, long featureCount, int binCount, String filePath) {
+        if (binCount < 2 || binCount > 256)
+            throw new IllegalArgumentException("Bin count must be in [2, 256]: " + binCount);
+        int N = store.getN();
+        int[][] lowest = new int[(int) featureCount][];
+        int[][] highest = new int[(int) featureCount][];
+
+        try (ColumnWriter out = new ColumnWriter(filePath, featureCount * N)) {
+            ForkJoinPool.commonPool().invoke(new Quantiser(store, binCount, 0, featureCount, lowest, highest, out));
+            out.commit();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not write binned features to " + filePath);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return new BinnedFeatures(N, lowest, highest, new MappedColumns(filePath, featureCount, N, Byte.BYTES));
+    }
+
+    private static class Quantiser extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final FeatureStore store;
+        private final int binCount;
+        private final long from;
+        private final long to;
+        private final int[][] lowest;
+        private final int[][] highest;
+        private final ColumnWriter out;
+
+        Quantiser(FeatureStore store, int binCount, long from, long to, int[][] lowest, int[][] highest, ColumnWriter out) {
+            this.store = store;
+            this.binCount = binCount;
+            this.from = from;
+            this.to = to;
+            this.lowest = lowest;
+            this.highest = highest;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FEATURES_BY_TASK) {
+                long middle = from + (to - from) / 2;
+                invokeAll(new Quantiser(store, binCount, from, middle, lowest, highest, out),
+                        new Quantiser(store, binCount, middle, to, lowest, highest, out));
+                return;
+            }
+
+            int N = store.getN();
+            ByteBuffer bytes = ByteBuffer.allocateDirect(N);
+            int[] low = new int[binCount];
+            int[] high = new int[binCount];
+            try (ColumnWriter.Batch batch = out.batch()) {
+                for (long featureIndex = from; featureIndex < to; featureIndex++) {
+                    int[][] column = store.sortedColumn(featureIndex);
+                    int[] examplesIndexes = column[0];
+                    int[] values = column[1];
+
+                    int bin = 0;
+                    for (int start = 0; start < N; bin++) {
+                        // Remaining examples are split evenly between remaining bins, without splitting a value
+                        int size = (N - start + binCount - bin - 1) / (binCount - bin);
+                        int end = start + size;
+                        while (end < N && values[end] == values[end - 1])
+                            end++;
+                        for (int i = start; i < end; i++)
+                            bytes.put(examplesIndexes[i], (byte) bin);
+                        low[bin] = values[start];
+                        high[bin] = values[end - 1];
+                        start = end;
+                    }
+                    lowest[(int) featureIndex] = Arrays.copyOf(low, bin);
+                    highest[(int) featureIndex] = Arrays.copyOf(high, bin);
+
+                    bytes.clear();
+                    batch.write(bytes, featureIndex * N);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public int getN() {
+        return N;
+    }
+
+    public int binCount(long featureIndex) {
+        return lowest[(int) featureIndex].length;
+    }
+
+    public int lowest(long featureIndex, int bin) {
+        return lowest[(int) featureIndex][bin];
+    }
+
+    public int highest(long featureIndex, int bin) {
+        return highest[(int) featureIndex][bin];
+    }
+
+    /**
+     * Bin of each example (unsigned byte), in example order, as a view over the mapping
+     */
+    public ByteBuffer bins(long featureIndex) {
+        return bins.byteColumn(featureIndex);
+    }
+}
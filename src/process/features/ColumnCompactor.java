@@ -0,0 +1,183 @@
+package process.features;
+
+import utils.ChannelIO;
+import utils.ColumnWriter;
+import utils.Serializer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Drops removed examples from the sorted columns of a FeatureStore, in parallel (fork-join over ranges of features),
+ * see FeatureStore.compact. Columns keep their order and the original example indexes: only their length changes.
+ *
+ * Compacted columns are either put back in heap arrays (InMemoryFeatureStore), or written to organized files next to
+ * the original ones (MappedFeatureStore and DiskFeatureStore): the original files are kept, as they are reused by later
+ * trainings. Compacted files alternate between a ".live0" and a ".live1" suffix, so that a compaction never replaces
+ * the files the store it reads from still maps: that store deletes them when it is closed (see FeatureStore.close).
+ * Example indexes keep the width of the original examples count.
+ */
+public class ColumnCompactor extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int FEATURES_BY_TASK = 256;
+    private static final String[] LIVE_SUFFIXES = {".live0", ".live1"};
+
+    private final FeatureStore source;
+    private final boolean[] removed;
+    private final int live;
+    private final long from;
+    private final long to;
+
+    // Heap target
+    private final int[][] values;
+    private final int[][] examplesIndexes;
+    private final char[][] narrowExamplesIndexes;
+
+    // Files target
+    private final ColumnWriter featureOut;
+    private final ColumnWriter sampleOut;
+
+    private ColumnCompactor(FeatureStore source, boolean[] removed, int live, long from, long to,
+                            int[][] values, int[][] examplesIndexes, char[][] narrowExamplesIndexes,
+                            ColumnWriter featureOut, ColumnWriter sampleOut) {
+        this.source = source;
+        this.removed = removed;
+        this.live = live;
+        this.from = from;
+        this.to = to;
+        this.values = values;
+        this.examplesIndexes = examplesIndexes;
+        this.narrowExamplesIndexes = narrowExamplesIndexes;
+        this.featureOut = featureOut;
+        this.sampleOut = sampleOut;
+    }
+
+    /**
+     * Number of examples not removed
+     */
+    public static int liveCount(boolean[] removed) {
+        int live = 0;
+        for (boolean r : removed)
+            if (!r)
+                live++;
+        return live;
+    }
+
+    /**
+     * Replaces the columns of the given arrays (examplesIndexes or narrowExamplesIndexes is null) by their live examples
+     */
+    public static void inMemory(FeatureStore source, long featureCount, boolean[] removed, int live,
+                                int[][] values, int[][] examplesIndexes, char[][] narrowExamplesIndexes) {
+        ForkJoinPool.commonPool().invoke(new ColumnCompactor(source, removed, live, 0, featureCount,
+                values, examplesIndexes, narrowExamplesIndexes, null, null));
+    }
+
+    /**
+     * Path of the compacted copy of an organized file, or of a compacted file: the suffixes alternate
+     */
+    public static String livePath(String filePath) {
+        if (filePath.endsWith(LIVE_SUFFIXES[0]))
+            return filePath.substring(0, filePath.length() - LIVE_SUFFIXES[0].length()) + LIVE_SUFFIXES[1];
+        if (filePath.endsWith(LIVE_SUFFIXES[1]))
+            return filePath.substring(0, filePath.length() - LIVE_SUFFIXES[1].length()) + LIVE_SUFFIXES[0];
+        return filePath + LIVE_SUFFIXES[0];
+    }
+
+    /**
+     * Writes the live examples of each column to livePath(feature) and livePath(sample), which are not the files of
+     * source. They are written aside and moved at the end, so that a crash never leaves incomplete compacted files.
+     */
+    public static void toFiles(FeatureStore source, long featureCount, boolean[] removed, int live, String feature, String sample) {
+        String featureTmp = livePath(feature) + ".tmp";
+        String sampleTmp = livePath(sample) + ".tmp";
+        int indexBytes = Serializer.indexBytes(removed.length);
+        try (ColumnWriter featureOut = new ColumnWriter(featureTmp, featureCount * live * Integer.BYTES);
+             ColumnWriter sampleOut = new ColumnWriter(sampleTmp, featureCount * live * indexBytes)) {
+            ForkJoinPool.commonPool().invoke(new ColumnCompactor(source, removed, live, 0, featureCount,
+                    null, null, null, featureOut, sampleOut));
+            featureOut.commit();
+            sampleOut.commit();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not compact organized features to " + featureTmp + " and " + sampleTmp);
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        try {
+            for (String tmp : new String[]{featureTmp, sampleTmp}) {
+                String target = tmp.substring(0, tmp.length() - ".tmp".length());
+                ChannelIO.close(tmp);
+                ChannelIO.close(target);
+                Files.move(Paths.get(tmp), Paths.get(target), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not move compacted organized features to " + livePath(feature));
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > FEATURES_BY_TASK) {
+            long middle = from + (to - from) / 2;
+            invokeAll(new ColumnCompactor(source, removed, live, from, middle, values, examplesIndexes, narrowExamplesIndexes, featureOut, sampleOut),
+                    new ColumnCompactor(source, removed, live, middle, to, values, examplesIndexes, narrowExamplesIndexes, featureOut, sampleOut));
+            return;
+        }
+
+        ByteBuffer bytes = featureOut != null ? ByteBuffer.allocateDirect(live * Integer.BYTES) : null;
+        IntBuffer ints = bytes != null ? bytes.asIntBuffer() : null;
+        int indexBytes = Serializer.indexBytes(removed.length);
+
+        try (ColumnWriter.Batch featureBatch = featureOut != null ? featureOut.batch() : null;
+             ColumnWriter.Batch sampleBatch = sampleOut != null ? sampleOut.batch() : null) {
+            for (long featureIndex = from; featureIndex < to; featureIndex++) {
+                int[][] column = source.sortedColumn(featureIndex);
+                int[] liveIndexes = new int[live];
+                int[] liveValues = new int[live];
+                int count = 0;
+                for (int i = 0; i < column[0].length; i++) {
+                    int exampleIndex = column[0][i];
+                    if (removed[exampleIndex])
+                        continue;
+                    liveIndexes[count] = exampleIndex;
+                    liveValues[count] = column[1][i];
+                    count++;
+                }
+                if (count != live) // An example dropped by a previous compaction is not removed anymore
+                    throw new IllegalStateException("Compacted examples can not be used again (feature " + featureIndex + ")");
+
+                if (featureOut == null) {
+                    values[(int) featureIndex] = liveValues;
+                    if (examplesIndexes != null)
+                        examplesIndexes[(int) featureIndex] = liveIndexes;
+                    else {
+                        char[] narrow = new char[live];
+                        for (int i = 0; i < live; i++)
+                            narrow[i] = (char) liveIndexes[i];
+                        narrowExamplesIndexes[(int) featureIndex] = narrow;
+                    }
+                    continue;
+                }
+
+                long position = featureIndex * live;
+                ints.clear();
+                ints.put(liveValues);
+                bytes.clear();
+                featureBatch.write(bytes, position * Integer.BYTES);
+                Serializer.putIndexes(bytes, liveIndexes, live, indexBytes);
+                sampleBatch.write(bytes, position * indexBytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package process.features;
+
+import process.Conf;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads ahead the sorted columns of the features a search will evaluate, when they are read from the organized files
+ * (DiskFeatureStore): a reader thread reads them in the order of the search (see StumpSearch), while the stumps of
+ * earlier features compute.
+ *
+ * Prefetched columns are kept in a pool of Conf.PREFETCH_MEMORY bytes (or the memory given to the constructor): the reader waits for a stump to release its
+ * column before reading further. A stump whose column was not started yet reads it itself (miss) instead of waiting
+ * for the reader; one whose column is being read waits for it (stall).
+ */
+public class ColumnPrefetcher {
+    private final DiskFeatureStore store;
+    private final int N;
+    private final Semaphore slots;
+    private final ConcurrentLinkedQueue<Column> pool = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<Long, CompletableFuture<Column>> columns = new ConcurrentHashMap<>();
+    private final Thread reader;
+    private final int featureCount;
+    private volatile boolean closed = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong stallNanos = new AtomicLong();
+
+    public static class Column {
+        public final int[] examplesIndexes;
+        public final int[] values;
+        private final boolean pooled;
+
+        private Column(int N, boolean pooled) {
+            this.examplesIndexes = new int[N];
+            this.values = new int[N];
+            this.pooled = pooled;
+        }
+    }
+
+    public ColumnPrefetcher(DiskFeatureStore store, List<Integer> features) {
+        this(store, features, Conf.PREFETCH_MEMORY);
+    }
+
+    public ColumnPrefetcher(DiskFeatureStore store, List<Integer> features, long memory) {
+        this.store = store;
+        this.N = store.getN();
+        this.slots = new Semaphore(slotCount(N, memory));
+        this.featureCount = features.size();
+        this.reader = new Thread(() -> readAhead(features), "ColumnPrefetcher");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Number of columns of N examples (values and indexes) fitting in memory
+     */
+    public static int slotCount(int N, long memory) {
+        return (int) Math.max(1, memory / (2L * N * Integer.BYTES));
+    }
+
+    private void readAhead(List<Integer> features) {
+        try {
+            for (long featureIndex : features) {
+                slots.acquire();
+                if (closed)
+                    return;
+                CompletableFuture<Column> future = new CompletableFuture<>();
+                if (columns.putIfAbsent(featureIndex, future) != null) {
+                    slots.release(); // Already read by its stump
+                    continue;
+                }
+                Column column = pool.poll();
+                if (column == null)
+                    column = new Column(N, true);
+                read(featureIndex, column);
+                future.complete(column);
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } catch (Throwable t) {
+            // Stumps whose column is not read yet read it themselves
+            for (CompletableFuture<Column> future : columns.values())
+                future.completeExceptionally(t);
+        }
+    }
+
+    private void read(long featureIndex, Column column) {
+        store.readColumn(featureIndex, column.examplesIndexes, column.values);
+    }
+
+    /**
+     * Sorted column of a feature, to be given back with release once the stump is done with it
+     */
+    public Column take(long featureIndex) {
+        CompletableFuture<Column> future = columns.putIfAbsent(featureIndex, new CompletableFuture<>());
+        if (future != null) {
+            boolean stalled = !future.isDone();
+            long start = System.nanoTime();
+            try {
+                Column column = future.get();
+                columns.remove(featureIndex);
+                if (stalled) {
+                    stalls.incrementAndGet();
+                    stallNanos.addAndGet(System.nanoTime() - start);
+                } else
+                    hits.incrementAndGet();
+                return column;
+            } catch (InterruptedException | ExecutionException e) {
+                // The reader stopped: read it here
+            }
+        }
+
+        misses.incrementAndGet();
+        Column column = new Column(N, false);
+        read(featureIndex, column);
+        return column;
+    }
+
+    public void release(Column column) {
+        if (!column.pooled)
+            return;
+        pool.offer(column);
+        slots.release();
+    }
+
+    /**
+     * Stops the reader: columns not taken yet are dropped. The reader is not interrupted, as it would close the file
+     * channels it shares with other threads.
+     */
+    public void close() {
+        closed = true;
+        slots.release(featureCount + 1);
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        columns.clear();
+        pool.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    public long getStallNanos() {
+        return stallNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Prefetched columns: " + hits + " hits, " + misses + " misses, " + stalls + " stalls ("
+                + stallNanos.get() / 1000000 + "ms waiting)";
+    }
+}
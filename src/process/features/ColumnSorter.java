@@ -0,0 +1,106 @@
+package process.features;
+
+import utils.ArgSort;
+import utils.ColumnWriter;
+import utils.Serializer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts feature columns in parallel (fork-join over ranges of features) and writes them to the organized files.
+ *
+ * For each feature, the column of values for all examples is given by a ColumnSource, sorted along with the example
+ * indexes by ArgSort, then written at offset featureIndex * N (in values of Serializer.indexBytes(N) bytes for the
+ * samples file) through a ColumnWriter batch per file, which gathers the consecutive columns of a task.
+ *
+ * It can also sort a run of a column only: values of examples [offset, offset + length[, written at
+ * featureIndex * N + offset (see StreamingOrganizer).
+ */
+public class ColumnSorter extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int FEATURES_BY_TASK = 256;
+
+    public interface ColumnSource {
+        /**
+         * Fills values with the value of feature featureIndex for each example (of the run).
+         */
+        void read(long featureIndex, int[] values) throws IOException;
+    }
+
+    private final ColumnSource source;
+    private final int N;
+    private final int offset;
+    private final int length;
+    private final long from;
+    private final long to;
+    private final ColumnWriter featureOut;
+    private final ColumnWriter sampleOut;
+
+    private ColumnSorter(ColumnSource source, int N, int offset, int length, long from, long to, ColumnWriter featureOut, ColumnWriter sampleOut) {
+        this.source = source;
+        this.N = N;
+        this.offset = offset;
+        this.length = length;
+        this.from = from;
+        this.to = to;
+        this.featureOut = featureOut;
+        this.sampleOut = sampleOut;
+    }
+
+    public static void sortAll(ColumnSource source, long featureCount, int N, ColumnWriter featureOut, ColumnWriter sampleOut) {
+        sortRuns(source, featureCount, N, 0, N, featureOut, sampleOut);
+    }
+
+    /**
+     * Sorts the run of examples [offset, offset + length[ of each feature. source fills values[0..length[.
+     */
+    public static void sortRuns(ColumnSource source, long featureCount, int N, int offset, int length, ColumnWriter featureOut, ColumnWriter sampleOut) {
+        ForkJoinPool.commonPool().invoke(new ColumnSorter(source, N, offset, length, 0, featureCount, featureOut, sampleOut));
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > FEATURES_BY_TASK) {
+            long middle = from + (to - from) / 2;
+            invokeAll(new ColumnSorter(source, N, offset, length, from, middle, featureOut, sampleOut),
+                    new ColumnSorter(source, N, offset, length, middle, to, featureOut, sampleOut));
+            return;
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocateDirect(length * Integer.BYTES);
+        IntBuffer ints = bytes.asIntBuffer();
+        int[] values = new int[length];
+        int[] indexes = new int[length];
+
+        try (ColumnWriter.Batch featureBatch = featureOut.batch();
+             ColumnWriter.Batch sampleBatch = sampleOut.batch()) {
+            for (long featureIndex = from; featureIndex < to; featureIndex++) {
+                source.read(featureIndex, values);
+                for (int i = 0; i < length; i++)
+                    indexes[i] = offset + i;
+
+                ArgSort.sort(values, indexes, length);
+
+                long position = featureIndex * N + offset;
+                write(featureBatch, bytes, ints, values, position * Integer.BYTES);
+                int indexBytes = Serializer.indexBytes(N);
+                Serializer.putIndexes(bytes, indexes, length, indexBytes);
+                sampleBatch.write(bytes, position * indexBytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(ColumnWriter.Batch batch, ByteBuffer bytes, IntBuffer ints, int[] values, long position) throws IOException {
+        ints.clear();
+        ints.put(values);
+        bytes.clear();
+        batch.write(bytes, position);
+    }
+}
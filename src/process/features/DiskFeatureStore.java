@@ -0,0 +1,74 @@
+package process.features;
+
+import utils.ChannelIO;
+import utils.Serializer;
+import utils.Utils;
+
+/**
+ * Organized features and samples read from their files at each call, when they do not fit in memory. The columns of
+ * a search are read ahead by a ColumnPrefetcher.
+ */
+public class DiskFeatureStore implements FeatureStore {
+    private final String features;
+    private final String samples;
+    private final long featureCount;
+    private final int N;
+    private final int exampleCount; // Training examples, gives the width of the example indexes
+    private boolean compacted = false; // Files written by compact, deleted by close
+
+    public DiskFeatureStore(String features, String samples, long featureCount, int N) {
+        this(features, samples, featureCount, N, N);
+    }
+
+    public DiskFeatureStore(String features, String samples, long featureCount, int N, int exampleCount) {
+        this.features = features;
+        this.samples = samples;
+        this.featureCount = featureCount;
+        this.N = N;
+        this.exampleCount = exampleCount;
+    }
+
+    @Override
+    public int getN() {
+        return N;
+    }
+
+    @Override
+    public int[][] sortedColumn(long featureIndex) {
+        int[][] column = new int[2][N];
+        readColumn(featureIndex, column[0], column[1]);
+        return column;
+    }
+
+    /**
+     * Reads the sorted column of a feature into examplesIndexes[0..N[ and values[0..N[
+     */
+    public void readColumn(long featureIndex, int[] examplesIndexes, int[] values) {
+        Serializer.readIndexesFromDisk(samples, featureIndex * N, exampleCount, examplesIndexes);
+        Serializer.readArrayFromDisk(features, featureIndex * N, values);
+    }
+
+    /**
+     * Live examples are written to ".live0" or ".live1" copies of the organized files (see ColumnCompactor)
+     */
+    @Override
+    public FeatureStore compact(boolean[] removed) {
+        int live = ColumnCompactor.liveCount(removed);
+        if (live == N || live == 0)
+            return this;
+        ColumnCompactor.toFiles(this, featureCount, removed, live, features, samples);
+        DiskFeatureStore store = new DiskFeatureStore(ColumnCompactor.livePath(features), ColumnCompactor.livePath(samples), featureCount, live, exampleCount);
+        store.compacted = true;
+        return store;
+    }
+
+    @Override
+    public void close() {
+        ChannelIO.close(features);
+        ChannelIO.close(samples);
+        if (compacted) {
+            Utils.deleteFile(features);
+            Utils.deleteFile(samples);
+        }
+    }
+}
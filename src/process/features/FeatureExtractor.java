@@ -2,14 +2,16 @@ package process.features;
 
 import GUI.ImageHandler;
 import cuda.HaarDetector;
-import javafx.util.Pair;
 import process.Conf;
+import utils.ColumnWriter;
+import utils.DatasetManifest;
+import utils.FeatureCache;
 import utils.Serializer;
 import utils.yield.Yielderable;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.stream.Collectors;
 
 import static process.IntegralImage.rectangleSum;
@@ -281,6 +283,10 @@ public class FeatureExtractor {
     }
 
     public static int[] computeImageFeatures(ImageHandler image, boolean writeToDisk, String imagePath) {
+        if (countAllFeatures(image.getWidth(), image.getHeight()) != Serializer.featureCount) {
+            System.err.println("Image " + imagePath + " (" + image.getWidth() + "x" + image.getHeight() + ") does not match the training window size!");
+            System.exit(1);
+        }
 
         int[] result = new int[(int) Serializer.featureCount];
         if (Conf.USE_CUDA) {
@@ -303,22 +309,49 @@ public class FeatureExtractor {
                     result[cpt++] = f.getValue();
         }
         if (writeToDisk)
-            writeArrayToDisk(imagePath + Conf.FEATURE_EXTENSION, result, Serializer.featureCount);
+            writeFeaturesToDisk(imagePath + Conf.FEATURE_EXTENSION, result, Serializer.featureCount);
 
         return result;
     }
 
     /**
+     * Computes the .haar file of each image of dir that is missing or stale according to the manifest of dir
+     * (dir + Conf.MANIFEST). If the names, sizes and mtimes of all images and .haar files of dir did not change, nothing
+     * is checked.
+     *
      * returns: the number of features computed
      */
     private static int computeImagesFeatures(String dir, boolean writeToDisk) {
-        int count = 0;
+        DatasetManifest manifest = DatasetManifest.load(dir + Conf.MANIFEST, DatasetManifest.featureSetVersion(Serializer.featureCount));
+        // Each image followed by its .haar file
+        ArrayList<String> files = new ArrayList<>();
         for (String imagePath : streamFiles(dir, Conf.IMAGES_EXTENSION)) {
-            if (!fileExists(imagePath + Conf.FEATURE_EXTENSION)) {
-                computeImageFeatures(imagePath, writeToDisk);
-                count++;
+            files.add(imagePath);
+            files.add(imagePath + Conf.FEATURE_EXTENSION);
+        }
+        if (manifest.matchesFingerprint(dir, DatasetManifest.fingerprint(files)))
+            return 0;
+
+        int count = 0;
+        for (int i = 0; i < files.size(); i += 2) {
+            String imagePath = files.get(i);
+            String haarPath = files.get(i + 1);
+            if (manifest.isUpToDate(imagePath, haarPath))
+                continue;
+            if (fileExists(haarPath)) {
+                if (manifest.isNew()) { // Computed before there was a manifest
+                    manifest.recordImage(imagePath, haarPath);
+                    continue;
+                }
+                deleteFile(haarPath); // The image, the .haar file or the feature set changed
             }
+            computeImageFeatures(imagePath, writeToDisk);
+            if (writeToDisk)
+                manifest.recordImage(imagePath, haarPath);
+            count++;
         }
+        manifest.setFingerprint(dir, DatasetManifest.fingerprint(files));
+        manifest.save();
         return count;
     }
 
@@ -349,7 +382,7 @@ public class FeatureExtractor {
     }
 
     /**
-     * Pour chaque feature:
+     * Pour chaque feature (en parallèle, voir ColumnSorter):
      *      vector<pair<valeur-de-la-feature, l'index de l'exemple (image)>> ascendingFeatures;
      *      Pour chaque exemple:
      *          ascendingFeatures.add(<valeur-de-cette-feature-pour-cet-example, index-de-l'exemple>)
@@ -362,76 +395,149 @@ public class FeatureExtractor {
      *      * OrganizedFeatures : (une ligne = une feature | chaque colonne dans cette ligne est la valeur de cette feature pour une image)
      *      * OrganizedSample   : (une ligne = une feature | chaque colonne dans cette ligne est l'index de l'image correspondante)
      * <p>
-     * organizeFeatures works in-memory only if possible (enough heap memory), else on-disk (it could be extremely slow).
+     * organizeFeatures works in-memory if training features have been cached in cache (see FeatureCache), else it
+     * streams .haar files through StreamingOrganizer (the examples x features matrix is never fully loaded).
+     *
+     * Returns the organized features as a FeatureStore: mapped or loaded in memory if loadInMemory is set (see
+     * Conf.MAP_ORGANIZED_FEATURES), read from disk otherwise. Sorting and merging use at most organizeMemory bytes
+     * (Conf.ORGANIZE_MEMORY_BUDGET by default, see MemoryBudget.getOrganizeMemory). The organized files are described by
+     * their own manifest (sample + Conf.MANIFEST_EXTENSION), so that organizations to different paths do not share one.
      */
-    public static void organizeFeatures(long featureCount, ArrayList<String> examples, String feature, String sample) {
+    public static FeatureStore organizeFeatures(long featureCount, ArrayList<String> examples, String feature, String sample) {
+        return organizeFeatures(featureCount, examples, feature, sample, false);
+    }
+
+    public static FeatureStore organizeFeatures(long featureCount, ArrayList<String> examples, String feature, String sample, boolean loadInMemory) {
+        return organizeFeatures(featureCount, examples, feature, sample, loadInMemory, Conf.ORGANIZE_MEMORY_BUDGET, null);
+    }
+
+    public static FeatureStore organizeFeatures(long featureCount, ArrayList<String> examples, String feature, String sample,
+                                                boolean loadInMemory, long organizeMemory, FeatureCache cache) {
         System.out.println("Organizing features...");
         long startTime = System.currentTimeMillis();
 
         int trainN = examples.size();
 
-        if (fileExists(feature)) {
-            if (!validSizeOfArray(feature, trainN * featureCount))
-                deleteFile(feature);
+        DatasetManifest manifest = DatasetManifest.load(sample + Conf.MANIFEST_EXTENSION, DatasetManifest.featureSetVersion(featureCount));
+        String fingerprint = DatasetManifest.fingerprint(featurePaths(examples));
+        if (manifest.matchesFingerprint(sample, fingerprint) && manifest.isArtifactUnchanged(feature) && manifest.isArtifactUnchanged(sample)) {
+            System.out.println("  - Already computed (manifest)!");
+            return afterOrganize(featureCount, feature, sample, trainN, loadInMemory, cache);
         }
-        if (fileExists(sample)) {
-            if (!validSizeOfArray(sample, trainN * featureCount))
+        if (manifest.getFingerprint(sample) != null) {
+            // Organized files can only be reused (or updated) if they and the .haar files they come from did not change
+            List<String> organized = IncrementalOrganizer.readExamples(sample);
+            if (organized == null || !manifest.matchesFingerprint(sample, DatasetManifest.fingerprint(featurePaths(organized)))
+                    || !manifest.isArtifactUnchanged(feature) || !manifest.isArtifactUnchanged(sample)) {
+                if (fileExists(feature))
+                    deleteFile(feature);
+                if (fileExists(sample))
                     deleteFile(sample);
+            }
         }
-        if (fileExists(feature) && fileExists(sample)) { // Already exist & both good!
+
+        // Also fails for a sample file written with another index width
+        boolean validFiles = fileExists(feature) && fileExists(sample)
+                && validSizeOfArray(feature, trainN * featureCount) && validSizeOfIndexes(sample, trainN * featureCount, trainN);
+        List<String> organizedExamples = IncrementalOrganizer.readExamples(sample);
+
+        if (validFiles && (organizedExamples == null || organizedExamples.equals(examples))) { // Already exist & both good!
             System.out.println("  - Already computed!");
         }
+        else if (IncrementalOrganizer.update(featureCount, examples, feature, sample, organizeMemory)) {
+            // Only new examples were sorted and merged
+        }
+        else if (cache == null || !cache.isInMemory()) {
+            // Training features are not cached in memory: stream them from their .haar files
+            if (fileExists(feature))
+                deleteFile(feature);
+            if (fileExists(sample))
+                deleteFile(sample);
+            StreamingOrganizer.organize(featureCount, examples, feature, sample, organizeMemory);
+        }
         else {
             assert examples.size() == trainN;
+            if (fileExists(feature))
+                deleteFile(feature);
+            if (fileExists(sample))
+                deleteFile(sample);
+
+            // Rows of the cached training features, in examples order. Off-heap rows are read in place instead of being copied
+            boolean offHeap = cache.isOffHeap();
+            int[][] rows = new int[trainN][];
+            int[] offHeapRows = new int[trainN];
+            for (int exampleIndex = 0; exampleIndex < trainN && offHeap; exampleIndex++) {
+                offHeapRows[exampleIndex] = cache.cachedTrainRow(examples.get(exampleIndex) + Conf.FEATURE_EXTENSION);
+                offHeap = offHeapRows[exampleIndex] >= 0;
+            }
+            for (int exampleIndex = 0; exampleIndex < trainN && !offHeap; exampleIndex++)
+                rows[exampleIndex] = cache.readFeatures(examples.get(exampleIndex) + Conf.FEATURE_EXTENSION);
+            boolean readOffHeap = offHeap;
+
+            try (ColumnWriter featureOut = new ColumnWriter(feature, featureCount * trainN * Integer.BYTES);
+                 ColumnWriter sampleOut = new ColumnWriter(sample, featureCount * trainN * Serializer.indexBytes(trainN))) {
+                ColumnSorter.sortAll((featureIndex, values) -> {
+                    for (int exampleIndex = 0; exampleIndex < trainN; exampleIndex++)
+                        values[exampleIndex] = readOffHeap ? cache.cachedTrainFeature(offHeapRows[exampleIndex], featureIndex)
+                                : rows[exampleIndex][(int) featureIndex];
+                }, featureCount, trainN, featureOut, sampleOut);
+                featureOut.commit();
+                sampleOut.commit();
+            } catch (Exception e) {
+                System.err.println("Could not organize features to " + feature + " and " + sample);
+                e.printStackTrace();
+                System.exit(1);
+            }
 
-            for (long featureIndex = 0; featureIndex < featureCount; featureIndex++) {
-                // <exampleIndex, value>
-                ArrayList<Pair<Integer, Integer>> ascendingFeatures = new ArrayList<>();
-
-                for (int exampleIndex = 0; exampleIndex < trainN; exampleIndex++)
-                    ascendingFeatures.add(new Pair<>(exampleIndex, readIntFromMemory(examples.get(exampleIndex) + Conf.FEATURE_EXTENSION, featureIndex)));
+            long elapsedTimeMS = (new Date()).getTime() - startTime;
+            System.out.println("  - Done in " + (elapsedTimeMS/1000) + "s");
+        }
 
-                Collections.sort(ascendingFeatures, (o1, o2) -> o1.getValue().compareTo(o2.getValue()));
+        IncrementalOrganizer.writeExamples(sample, examples);
+        manifest.recordArtifact(feature);
+        manifest.recordArtifact(sample);
+        manifest.setFingerprint(sample, fingerprint);
+        manifest.save();
 
-                ArrayList<Integer> permutedSamples = new ArrayList<>(trainN);
-                ArrayList<Integer> permutedFeatures = new ArrayList<>(trainN);
+        return afterOrganize(featureCount, feature, sample, trainN, loadInMemory, cache);
+    }
 
-                for (int k = 0; k < trainN; k++) {
-                    permutedSamples.add(ascendingFeatures.get(k).getKey());
-                    permutedFeatures.add(ascendingFeatures.get(k).getValue());
-                }
+    private static ArrayList<String> featurePaths(List<String> examples) {
+        ArrayList<String> paths = new ArrayList<>(examples.size());
+        for (String example : examples)
+            paths.add(example + Conf.FEATURE_EXTENSION);
+        return paths;
+    }
 
-                appendArrayToDisk(sample, permutedSamples);
-                appendArrayToDisk(feature, permutedFeatures);
-            }
-            long elapsedTimeMS = (new Date()).getTime() - startTime;
-            System.out.println("  - Done in " + (elapsedTimeMS/1000) + "s");
+    private static FeatureStore afterOrganize(long featureCount, String feature, String sample, int trainN, boolean loadInMemory,
+                                              FeatureCache cache) {
+        // Cached training features are no more useful for training
+        if (cache != null)
+            cache.clearTrainImagesFeatures();
 
+        if (loadInMemory && Conf.MAP_ORGANIZED_FEATURES) {
+            System.out.println("Mapping all organized features and samples to memory");
+            return new MappedFeatureStore(feature, sample, featureCount, trainN);
         }
-
-        // trainImagesFeatures is no more useful for training
-        Serializer.clearTrainImagesFeatures();
-
-        if (Serializer.isInMemory()) {
+        else if (loadInMemory) {
             // Now load organizeFeatures in memory if possible
             System.out.print("Loading all organized features and samples to memory...");
-            Serializer.loadOrganizedInMemory(Conf.ORGANIZED_FEATURES, Conf.ORGANIZED_SAMPLE, trainN);
+            FeatureStore store = new InMemoryFeatureStore(feature, sample, featureCount, trainN);
             System.out.println(" done!");
+            return store;
         }
+        return new DiskFeatureStore(feature, sample, featureCount, trainN);
     }
 
     /**
      * Call with organizedSample
      */
     public static int getExampleIndex(long featureIndex, int iterator, int trainN, String organizedSample) {
-        return readIntFromDisk(organizedSample, featureIndex * trainN + iterator);
+        return readIndexFromDisk(organizedSample, featureIndex * trainN + iterator, trainN);
     }
     public static int getExampleIndex(long featureIndex, int iterator, int trainN) {
         return getExampleIndex(featureIndex, iterator, trainN, Conf.ORGANIZED_SAMPLE);
     }
-    public static int[] getFeatureExamplesIndexes(long featureIndex, int trainN) {
-        return featureExamplesIndexes(Conf.ORGANIZED_SAMPLE, featureIndex, trainN);
-    }
 
     /**
      * Call with organizedFeature
@@ -442,7 +548,4 @@ public class FeatureExtractor {
     public static int getExampleFeature(long featureIndex, int iterator, int trainN) {
         return getExampleFeature(featureIndex, iterator, trainN, Conf.ORGANIZED_FEATURES);
     }
-    public static int[] getFeatureValues(long featureIndex, int trainN) {
-        return featureValues(Conf.ORGANIZED_FEATURES, featureIndex, trainN);
-    }
 }
@@ -0,0 +1,84 @@
+package process.features;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Sorted columns of the training features: for each feature, the values of the N training examples in ascending
+ * order, along with the index of their example. Given to Classifier and DecisionStump by whoever organized the
+ * features (see FeatureExtractor.organizeFeatures), so that several trainings or evaluations can each hold their own
+ * store in the same JVM.
+ *
+ * - InMemoryFeatureStore  organized files loaded in heap arrays
+ * - MappedFeatureStore    organized files mapped in memory (see utils.MappedColumns)
+ * - DiskFeatureStore      organized files read at each call (see ColumnPrefetcher)
+ * - OnTheFlyFeatures      computed from integral images
+ */
+public interface FeatureStore {
+    /**
+     * Number of examples in each column: the training examples, minus those dropped by compact
+     */
+    int getN();
+
+    /**
+     * Returns {examplesIndexes, values} of a feature, sorted by ascending values.
+     */
+    int[][] sortedColumn(long featureIndex);
+
+    /**
+     * Returns {examplesIndexes, values} of a feature, in no particular order.
+     */
+    default int[][] column(long featureIndex) {
+        return sortedColumn(featureIndex);
+    }
+
+    /**
+     * Sorted values of a feature, with examples indexes given by narrowExamplesIndexes or the views below
+     */
+    default int[] values(long featureIndex) {
+        return sortedColumn(featureIndex)[1];
+    }
+
+    /**
+     * Sorted example indexes of a feature when they are kept in memory as chars, null otherwise.
+     */
+    default char[] narrowExamplesIndexes(long featureIndex) {
+        return null;
+    }
+
+    /**
+     * Sorted values of a feature as a view over the store, without copy. Null if the store can not give views.
+     */
+    default IntBuffer valuesView(long featureIndex) {
+        return null;
+    }
+
+    /**
+     * View over the sorted example indexes, null if the store can not give views or if they are narrow
+     * (see narrowExamplesIndexesView).
+     */
+    default IntBuffer examplesIndexesView(long featureIndex) {
+        return null;
+    }
+
+    default CharBuffer narrowExamplesIndexesView(long featureIndex) {
+        return null;
+    }
+
+    /**
+     * Drops the examples flagged in removed (indexed by example) from the columns, so that later searches scan fewer
+     * entries. Examples dropped must never be used again. Example indexes are unchanged: only getN() decreases.
+     * Returns the store to use from now on, which can be this one compacted in place.
+     */
+    default FeatureStore compact(boolean[] removed) {
+        return this;
+    }
+
+    /**
+     * Releases the mappings and open files of the store, and deletes the compacted files it was created with (see
+     * ColumnCompactor): called on the previous store once compact returned another one. The store can not be used
+     * anymore.
+     */
+    default void close() {
+    }
+}
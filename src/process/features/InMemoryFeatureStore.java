@@ -0,0 +1,72 @@
+package process.features;
+
+import utils.Serializer;
+
+/**
+ * Organized features and samples loaded in heap arrays. Example indexes are kept as chars when they fit in 16 bits
+ * (see Serializer.indexBytes).
+ */
+public class InMemoryFeatureStore implements FeatureStore {
+    private int N;
+    private final int[][] values;
+    private final int[][] examplesIndexes; // null when narrow
+    private final char[][] narrowExamplesIndexes; // Instead of examplesIndexes when Serializer.indexBytes(N) is 2
+
+    public InMemoryFeatureStore(String features, String samples, long featureCount, int N) {
+        this.N = N;
+        boolean narrow = Serializer.indexBytes(N) == Character.BYTES;
+        values = new int[(int) featureCount][];
+        examplesIndexes = narrow ? null : new int[(int) featureCount][];
+        narrowExamplesIndexes = narrow ? new char[(int) featureCount][] : null;
+        for (int i = 0; i < featureCount; i++) {
+            values[i] = Serializer.readArrayFromDisk(features, (long) i * N, (long) N * (i + 1));
+            if (narrow)
+                narrowExamplesIndexes[i] = Serializer.readNarrowIndexesFromDisk(samples, (long) i * N, (long) N * (i + 1));
+            else
+                examplesIndexes[i] = Serializer.readIndexesFromDisk(samples, (long) i * N, (long) N * (i + 1), N);
+        }
+    }
+
+    @Override
+    public int getN() {
+        return N;
+    }
+
+    @Override
+    public int[][] sortedColumn(long featureIndex) {
+        return new int[][]{examplesIndexes(featureIndex), values[(int) featureIndex]};
+    }
+
+    private int[] examplesIndexes(long featureIndex) {
+        if (examplesIndexes != null)
+            return examplesIndexes[(int) featureIndex];
+        char[] narrow = narrowExamplesIndexes[(int) featureIndex];
+        int[] result = new int[narrow.length];
+        for (int i = 0; i < narrow.length; i++)
+            result[i] = narrow[i];
+        return result;
+    }
+
+    @Override
+    public int[] values(long featureIndex) {
+        return values[(int) featureIndex];
+    }
+
+    @Override
+    public char[] narrowExamplesIndexes(long featureIndex) {
+        return narrowExamplesIndexes == null ? null : narrowExamplesIndexes[(int) featureIndex];
+    }
+
+    /**
+     * Columns are replaced by shorter ones: the memory of dropped examples is released
+     */
+    @Override
+    public FeatureStore compact(boolean[] removed) {
+        int live = ColumnCompactor.liveCount(removed);
+        if (live == N || live == 0)
+            return this;
+        ColumnCompactor.inMemory(this, values.length, removed, live, values, examplesIndexes, narrowExamplesIndexes);
+        N = live;
+        return this;
+    }
+}
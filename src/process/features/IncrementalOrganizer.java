@@ -0,0 +1,251 @@
+package process.features;
+
+import process.Conf;
+import utils.ArgSort;
+import utils.ChannelIO;
+import utils.ColumnWriter;
+import utils.Serializer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static utils.Utils.deleteFile;
+import static utils.Utils.fileExists;
+
+/**
+ * Updates organizedFeatures & organizedSample when examples were added since they were organized, instead of
+ * organizing all examples again.
+ *
+ * The examples the files were organized with are listed in sample + ".examples". Their indexes are remapped to their
+ * place in the new examples list, then, for each feature, the values of the new examples are sorted and merged into the
+ * existing sorted column. Sorting costs the number of new examples only, but each column is still read and written once.
+ */
+public class IncrementalOrganizer {
+    private static final int FEATURES_BY_TASK = 256;
+
+    public static String examplesFile(String sample) {
+        return sample + ".examples";
+    }
+
+    public static void writeExamples(String sample, ArrayList<String> examples) {
+        try {
+            Files.write(Paths.get(examplesFile(sample)), examples, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Could not write to " + examplesFile(sample));
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Examples the organized files were built with, null if unknown
+     */
+    public static List<String> readExamples(String sample) {
+        if (!fileExists(examplesFile(sample)))
+            return null;
+        try {
+            return Files.readAllLines(Paths.get(examplesFile(sample)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Tries to update the organized files for examples. Returns false if they have to be organized from scratch: no
+     * list of organized examples, invalid files, removed examples, or too many new examples for
+     * Conf.ORGANIZE_MEMORY_BUDGET (their feature values are kept in memory).
+     */
+    public static boolean update(long featureCount, ArrayList<String> examples, String feature, String sample) {
+        return update(featureCount, examples, feature, sample, Conf.ORGANIZE_MEMORY_BUDGET);
+    }
+
+    public static boolean update(long featureCount, ArrayList<String> examples, String feature, String sample, long memory) {
+        List<String> organized = readExamples(sample);
+        if (organized == null || !fileExists(feature) || !fileExists(sample))
+            return false;
+
+        int oldN = organized.size();
+        int N = examples.size();
+        if (oldN == 0 || oldN >= N)
+            return false;
+        if (!Serializer.validSizeOfArray(feature, featureCount * oldN) || !Serializer.validSizeOfIndexes(sample, featureCount * oldN, oldN))
+            return false;
+
+        HashMap<String, Integer> newIndexes = new HashMap<>();
+        for (int i = 0; i < N; i++)
+            newIndexes.put(examples.get(i), i);
+
+        int[] remap = new int[oldN];
+        boolean[] isOld = new boolean[N];
+        for (int i = 0; i < oldN; i++) {
+            Integer index = newIndexes.get(organized.get(i));
+            if (index == null || isOld[index])
+                return false;
+            remap[i] = index;
+            isOld[index] = true;
+        }
+
+        int M = N - oldN;
+        if ((long) M * featureCount * Integer.BYTES > memory) {
+            System.out.println("  - Too many new examples (" + M + ") to update organized features");
+            return false;
+        }
+
+        System.out.println("  - Merging " + M + " new examples into " + oldN + " organized examples");
+        long startTime = System.currentTimeMillis();
+
+        int[] added = new int[M];
+        int[][] rows = new int[M][];
+        for (int i = 0, k = 0; i < N; i++) {
+            if (!isOld[i]) {
+                added[k] = i;
+                rows[k] = Serializer.readFeatures(examples.get(i) + Conf.FEATURE_EXTENSION);
+                k++;
+            }
+        }
+
+        String featureMerge = feature + ".merge";
+        String sampleMerge = sample + ".merge";
+        try (RandomAccessFile featureIn = new RandomAccessFile(feature, "r");
+             RandomAccessFile sampleIn = new RandomAccessFile(sample, "r");
+             ColumnWriter featureOut = new ColumnWriter(featureMerge, featureCount * N * Integer.BYTES);
+             ColumnWriter sampleOut = new ColumnWriter(sampleMerge, featureCount * N * Serializer.indexBytes(N))) {
+            ForkJoinPool.commonPool().invoke(new Merger(featureIn.getChannel(), sampleIn.getChannel(), featureOut,
+                    sampleOut, oldN, remap, added, rows, 0, featureCount));
+            // Durable before replacing the originals
+            featureOut.commit();
+            sampleOut.commit();
+        } catch (Exception e) {
+            System.err.println("Could not merge new examples to " + featureMerge + " and " + sampleMerge);
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        ChannelIO.close(feature);
+        ChannelIO.close(sample);
+        try {
+            Files.move(Paths.get(featureMerge), Paths.get(feature), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(Paths.get(sampleMerge), Paths.get(sample), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not replace " + feature + " and " + sample);
+            e.printStackTrace();
+            deleteFile(feature);
+            deleteFile(sample);
+            return false;
+        }
+
+        System.out.println("  - Done in " + ((new Date()).getTime() - startTime) / 1000 + "s");
+        return true;
+    }
+
+    private static class Merger extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel featureIn;
+        private final FileChannel sampleIn;
+        private final ColumnWriter featureOut;
+        private final ColumnWriter sampleOut;
+        private final int oldN;
+        private final int[] remap;
+        private final int[] added;
+        private final int[][] rows;
+        private final long from;
+        private final long to;
+
+        Merger(FileChannel featureIn, FileChannel sampleIn, ColumnWriter featureOut, ColumnWriter sampleOut,
+               int oldN, int[] remap, int[] added, int[][] rows, long from, long to) {
+            this.featureIn = featureIn;
+            this.sampleIn = sampleIn;
+            this.featureOut = featureOut;
+            this.sampleOut = sampleOut;
+            this.oldN = oldN;
+            this.remap = remap;
+            this.added = added;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > FEATURES_BY_TASK) {
+                long middle = from + (to - from) / 2;
+                invokeAll(new Merger(featureIn, sampleIn, featureOut, sampleOut, oldN, remap, added, rows, from, middle),
+                        new Merger(featureIn, sampleIn, featureOut, sampleOut, oldN, remap, added, rows, middle, to));
+                return;
+            }
+
+            int M = added.length;
+            int N = oldN + M;
+            int oldIndexBytes = Serializer.indexBytes(oldN);
+            int indexBytes = Serializer.indexBytes(N);
+
+            ByteBuffer bytes = ByteBuffer.allocateDirect(N * Integer.BYTES);
+            IntBuffer ints = bytes.asIntBuffer();
+            int[] oldValues = new int[oldN];
+            int[] oldIndexes = new int[oldN];
+            int[] newValues = new int[M];
+            int[] newIndexes = new int[M];
+            int[] values = new int[N];
+            int[] indexes = new int[N];
+
+            try (ColumnWriter.Batch featureBatch = featureOut.batch();
+                 ColumnWriter.Batch sampleBatch = sampleOut.batch()) {
+                for (long featureIndex = from; featureIndex < to; featureIndex++) {
+                    bytes.clear().limit(oldN * Integer.BYTES);
+                    ChannelIO.readFully(featureIn, bytes, featureIndex * oldN * Integer.BYTES);
+                    ints.clear();
+                    ints.get(oldValues);
+                    bytes.clear().limit(oldN * oldIndexBytes);
+                    ChannelIO.readFully(sampleIn, bytes, featureIndex * oldN * oldIndexBytes);
+                    Serializer.getIndexes(bytes, oldIndexes, oldN, oldIndexBytes);
+                    for (int i = 0; i < oldN; i++)
+                        oldIndexes[i] = remap[oldIndexes[i]];
+
+                    for (int k = 0; k < M; k++) {
+                        newValues[k] = rows[k][(int) featureIndex];
+                        newIndexes[k] = added[k];
+                    }
+                    ArgSort.sort(newValues, newIndexes, M);
+
+                    // Ties are ordered by example index, as when sorting whole columns
+                    int i = 0;
+                    int k = 0;
+                    for (int j = 0; j < N; j++) {
+                        if (k >= M || (i < oldN && (oldValues[i] < newValues[k]
+                                || (oldValues[i] == newValues[k] && oldIndexes[i] < newIndexes[k])))) {
+                            values[j] = oldValues[i];
+                            indexes[j] = oldIndexes[i++];
+                        } else {
+                            values[j] = newValues[k];
+                            indexes[j] = newIndexes[k++];
+                        }
+                    }
+
+                    ints.clear();
+                    ints.put(values);
+                    bytes.clear();
+                    featureBatch.write(bytes, featureIndex * N * Integer.BYTES);
+                    Serializer.putIndexes(bytes, indexes, N, indexBytes);
+                    sampleBatch.write(bytes, featureIndex * N * indexBytes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package process.features;
+
+import utils.MappedColumns;
+import utils.Serializer;
+import utils.Utils;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Organized features and samples mapped in memory instead of being loaded in heap arrays (see MappedColumns): columns
+ * are given as views, so DecisionStump reads them without copy.
+ */
+public class MappedFeatureStore implements FeatureStore {
+    private final String features;
+    private final String samples;
+    private final long featureCount;
+    private final int N;
+    private final int exampleCount; // Training examples, gives the width of the example indexes
+    private final MappedColumns values;
+    private final MappedColumns examplesIndexes;
+    private final boolean narrow;
+    private boolean compacted = false; // Files written by compact, deleted by close
+
+    public MappedFeatureStore(String features, String samples, long featureCount, int N) {
+        this(features, samples, featureCount, N, N);
+    }
+
+    public MappedFeatureStore(String features, String samples, long featureCount, int N, int exampleCount) {
+        this.features = features;
+        this.samples = samples;
+        this.featureCount = featureCount;
+        this.N = N;
+        this.exampleCount = exampleCount;
+        this.values = new MappedColumns(features, featureCount, N, Integer.BYTES);
+        this.examplesIndexes = new MappedColumns(samples, featureCount, N, Serializer.indexBytes(exampleCount));
+        this.narrow = Serializer.indexBytes(exampleCount) == Character.BYTES;
+    }
+
+    @Override
+    public int getN() {
+        return N;
+    }
+
+    @Override
+    public int[][] sortedColumn(long featureIndex) {
+        int[] indexes = new int[N];
+        if (narrow) {
+            CharBuffer chars = examplesIndexes.charColumn(featureIndex);
+            for (int i = 0; i < N; i++)
+                indexes[i] = chars.get(i);
+        } else
+            examplesIndexes.intColumn(featureIndex).get(indexes);
+        return new int[][]{indexes, values(featureIndex)};
+    }
+
+    @Override
+    public int[] values(long featureIndex) {
+        int[] result = new int[N];
+        values.intColumn(featureIndex).get(result);
+        return result;
+    }
+
+    @Override
+    public IntBuffer valuesView(long featureIndex) {
+        return values.intColumn(featureIndex);
+    }
+
+    @Override
+    public IntBuffer examplesIndexesView(long featureIndex) {
+        return narrow ? null : examplesIndexes.intColumn(featureIndex);
+    }
+
+    @Override
+    public CharBuffer narrowExamplesIndexesView(long featureIndex) {
+        return narrow ? examplesIndexes.charColumn(featureIndex) : null;
+    }
+
+    /**
+     * Live examples are written to ".live0" or ".live1" copies of the organized files (see ColumnCompactor), which
+     * are mapped instead: the pages of dropped examples are not read anymore.
+     */
+    @Override
+    public FeatureStore compact(boolean[] removed) {
+        int live = ColumnCompactor.liveCount(removed);
+        if (live == N || live == 0)
+            return this;
+        ColumnCompactor.toFiles(this, featureCount, removed, live, features, samples);
+        MappedFeatureStore store = new MappedFeatureStore(ColumnCompactor.livePath(features), ColumnCompactor.livePath(samples), featureCount, live, exampleCount);
+        store.compacted = true;
+        return store;
+    }
+
+    @Override
+    public void close() {
+        values.close();
+        examplesIndexes.close();
+        if (compacted) {
+            Utils.deleteFile(features);
+            Utils.deleteFile(samples);
+        }
+    }
+}
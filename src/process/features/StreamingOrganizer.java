@@ -0,0 +1,265 @@
+package process.features;
+
+import process.Conf;
+import utils.ChannelIO;
+import utils.ColumnWriter;
+import utils.Serializer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static utils.Utils.deleteFile;
+import static utils.Utils.fileExists;
+
+/**
+ * Builds organizedFeatures & organizedSample without the examples x features matrix (external memory sort).
+ *
+ * 1. Runs: feature vectors of a block of examples are read into a buffer laid out feature by feature (blockSize
+ *    examples per feature). When the block is full, each feature's part is sorted with its example indexes, by ranges
+ *    of features in parallel (see ColumnSorter), and written as a sorted run at its place in the run files (run of
+ *    feature f for examples [start, start + count[ is at f * N + start).
+ * 2. Merge: the runs of each feature are merged (bottom-up, blockSize examples wide at first) and written to the
+ *    organized files, in parallel.
+ *
+ * Memory used is bounded by Conf.ORGANIZE_MEMORY_BUDGET (or the memory given to organize): half of it for the block buffer, the other half for the
+ * columns being merged, which limits the number of merging threads.
+ */
+public class StreamingOrganizer {
+    // Bytes needed to merge one feature: values, indexes, their merge buffers and a direct buffer for I/O
+    private static final int MERGE_BYTES_BY_EXAMPLE = 5 * Integer.BYTES;
+    private static final int MERGE_FEATURES_BY_TASK = 64;
+
+    public static void organize(long featureCount, ArrayList<String> examples, String feature, String sample) {
+        organize(featureCount, examples, feature, sample, Conf.ORGANIZE_MEMORY_BUDGET);
+    }
+
+    /**
+     * Organizes with memory bytes instead of Conf.ORGANIZE_MEMORY_BUDGET (see MemoryBudget.getOrganizeMemory)
+     */
+    public static void organize(long featureCount, ArrayList<String> examples, String feature, String sample, long memory) {
+        int N = examples.size();
+        String featureRuns = feature + ".runs";
+        String sampleRuns = sample + ".runs";
+        if (fileExists(featureRuns))
+            deleteFile(featureRuns);
+        if (fileExists(sampleRuns))
+            deleteFile(sampleRuns);
+
+        int blockSize = blockSize(featureCount, N, memory);
+        System.out.println("  - Organizing " + N + " examples by blocks of " + blockSize + " with "
+                + memory / (1024 * 1024) + "Mo, using " + mergeThreads(N, memory) + " merging threads");
+
+        long startTime = System.currentTimeMillis();
+        writeRuns(featureCount, examples, blockSize, featureRuns, sampleRuns);
+        System.out.println("  - Sorted " + (N + blockSize - 1) / blockSize + " runs in " + ((new Date()).getTime() - startTime) / 1000 + "s");
+
+        startTime = System.currentTimeMillis();
+        mergeRuns(featureCount, N, blockSize, featureRuns, sampleRuns, feature, sample, memory);
+        System.out.println("  - Merged " + featureCount + " features in " + ((new Date()).getTime() - startTime) / 1000 + "s");
+
+        deleteFile(featureRuns);
+        deleteFile(sampleRuns);
+    }
+
+    /**
+     * Number of examples of a block, so that the block buffer fits in half of memory
+     */
+    public static int blockSize(long featureCount, int N, long memory) {
+        long size = memory / 2 / (featureCount * Integer.BYTES);
+        return (int) Math.max(1, Math.min(size, N));
+    }
+
+    /**
+     * Number of features merged at the same time, so that their columns fit in half of memory
+     */
+    public static int mergeThreads(int N, long memory) {
+        long threads = memory / 2 / ((long) N * MERGE_BYTES_BY_EXAMPLE);
+        return (int) Math.max(1, Math.min(threads, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static void writeRuns(long featureCount, ArrayList<String> examples, int blockSize, String featureRuns, String sampleRuns) {
+        int N = examples.size();
+        int[] block = new int[(int) (featureCount * blockSize)];
+        Progress progress = new Progress("Sorting runs", N);
+
+        try (ColumnWriter featureOut = new ColumnWriter(featureRuns, featureCount * N * Integer.BYTES);
+             ColumnWriter sampleOut = new ColumnWriter(sampleRuns, featureCount * N * Serializer.indexBytes(N))) {
+
+            for (int blockStart = 0; blockStart < N; blockStart += blockSize) {
+                int count = Math.min(blockSize, N - blockStart);
+
+                for (int i = 0; i < count; i++) {
+                    int[] values = Serializer.readFeatures(examples.get(blockStart + i) + Conf.FEATURE_EXTENSION);
+                    for (int f = 0; f < featureCount; f++)
+                        block[f * blockSize + i] = values[f];
+                }
+
+                ColumnSorter.sortRuns((featureIndex, values) -> System.arraycopy(block, (int) featureIndex * blockSize, values, 0, count),
+                        featureCount, N, blockStart, count, featureOut, sampleOut);
+                progress.step(count);
+            }
+        } catch (Exception e) {
+            System.err.println("Could not write sorted runs to " + featureRuns + " and " + sampleRuns);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void mergeRuns(long featureCount, int N, int blockSize, String featureRuns, String sampleRuns, String feature, String sample,
+                                  long memory) {
+        ForkJoinPool pool = new ForkJoinPool(mergeThreads(N, memory));
+        try (RandomAccessFile featureIn = new RandomAccessFile(featureRuns, "r");
+             RandomAccessFile sampleIn = new RandomAccessFile(sampleRuns, "r");
+             ColumnWriter featureOut = new ColumnWriter(feature, featureCount * N * Integer.BYTES);
+             ColumnWriter sampleOut = new ColumnWriter(sample, featureCount * N * Serializer.indexBytes(N))) {
+            Channels channels = new Channels(featureIn.getChannel(), sampleIn.getChannel(), featureOut, sampleOut);
+            pool.invoke(new RunMerger(channels, N, blockSize, 0, featureCount, new Progress("Merging runs", featureCount)));
+            featureOut.commit();
+            sampleOut.commit();
+        } catch (Exception e) {
+            System.err.println("Could not merge runs to " + feature + " and " + sample);
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class Channels {
+        final FileChannel featureIn;
+        final FileChannel sampleIn;
+        final ColumnWriter featureOut;
+        final ColumnWriter sampleOut;
+
+        Channels(FileChannel featureIn, FileChannel sampleIn, ColumnWriter featureOut, ColumnWriter sampleOut) {
+            this.featureIn = featureIn;
+            this.sampleIn = sampleIn;
+            this.featureOut = featureOut;
+            this.sampleOut = sampleOut;
+        }
+    }
+
+    private static class RunMerger extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Channels channels;
+        private final int N;
+        private final int runSize;
+        private final long from;
+        private final long to;
+        private final Progress progress;
+
+        RunMerger(Channels channels, int N, int runSize, long from, long to, Progress progress) {
+            this.channels = channels;
+            this.N = N;
+            this.runSize = runSize;
+            this.from = from;
+            this.to = to;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > MERGE_FEATURES_BY_TASK) {
+                long middle = from + (to - from) / 2;
+                invokeAll(new RunMerger(channels, N, runSize, from, middle, progress),
+                        new RunMerger(channels, N, runSize, middle, to, progress));
+                return;
+            }
+
+            ByteBuffer bytes = ByteBuffer.allocateDirect(N * Integer.BYTES);
+            IntBuffer ints = bytes.asIntBuffer();
+            int[] values = new int[N];
+            int[] indexes = new int[N];
+            int[] valuesTmp = new int[N];
+            int[] indexesTmp = new int[N];
+
+            int indexBytes = Serializer.indexBytes(N);
+            try (ColumnWriter.Batch featureBatch = channels.featureOut.batch();
+                 ColumnWriter.Batch sampleBatch = channels.sampleOut.batch()) {
+                for (long featureIndex = from; featureIndex < to; featureIndex++) {
+                    long position = featureIndex * N;
+                    bytes.clear();
+                    ChannelIO.readFully(channels.featureIn, bytes, position * Integer.BYTES);
+                    ints.clear();
+                    ints.get(values);
+                    bytes.limit(N * indexBytes);
+                    ChannelIO.readFully(channels.sampleIn, bytes, position * indexBytes);
+                    Serializer.getIndexes(bytes, indexes, N, indexBytes);
+
+                    for (int width = runSize; width < N; width *= 2) {
+                        for (int start = 0; start < N; start += 2 * width)
+                            merge(values, indexes, valuesTmp, indexesTmp, start, Math.min(start + width, N), Math.min(start + 2 * width, N));
+                        int[] swap = values;
+                        values = valuesTmp;
+                        valuesTmp = swap;
+                        swap = indexes;
+                        indexes = indexesTmp;
+                        indexesTmp = swap;
+                    }
+
+                    ints.clear();
+                    ints.put(values);
+                    bytes.clear();
+                    featureBatch.write(bytes, position * Integer.BYTES);
+                    Serializer.putIndexes(bytes, indexes, N, indexBytes);
+                    sampleBatch.write(bytes, position * indexBytes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            progress.step(to - from);
+        }
+
+        /**
+         * Merges [start, middle[ and [middle, end[ into the same range of the destination. On equal values the left run
+         * goes first: its examples have lower indexes, so ties stay in ascending index order like ArgSort.
+         */
+        private static void merge(int[] values, int[] indexes, int[] valuesDst, int[] indexesDst, int start, int middle, int end) {
+            int i = start;
+            int j = middle;
+            for (int k = start; k < end; k++) {
+                if (j >= end || (i < middle && values[i] <= values[j])) {
+                    valuesDst[k] = values[i];
+                    indexesDst[k] = indexes[i++];
+                } else {
+                    valuesDst[k] = values[j];
+                    indexesDst[k] = indexes[j++];
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints the progress of a phase every 10%
+     */
+    private static class Progress {
+        private final String name;
+        private final long total;
+        private final long startTime = System.currentTimeMillis();
+        private long done = 0;
+        private long lastPercent = 0;
+
+        Progress(String name, long total) {
+            this.name = name;
+            this.total = total;
+        }
+
+        synchronized void step(long count) {
+            done += count;
+            long percent = done * 100 / total;
+            if (percent / 10 > lastPercent / 10 && done < total) {
+                System.out.println("    " + name + ": " + percent + "% (" + done + "/" + total + ") in "
+                        + (System.currentTimeMillis() - startTime) / 1000 + "s");
+                lastPercent = percent;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Sorts feature values in ascending order while keeping the example index of each value alongside.
+ *
+ * Haar values are bounded (|value| <= width * height * 255), so long columns are sorted with an LSD radix sort on
+ * (value - min), which needs 2 passes of at most 11 bits for a 19x19 window. Short columns use a comparison sort, which
+ * is faster below RADIX_THRESHOLD values (see Statistics.Perfs.benchmarkArgSort).
+ */
+public class ArgSort {
+    public static final int RADIX_THRESHOLD = 256;
+    private static final int RADIX_BITS = 11;
+
+    /**
+     * Sorts values[0..n[ in ascending order and applies the same permutation to indexes[0..n[.
+     * Equal values keep the ascending order of their indexes, as long as indexes are non-negative and given in
+     * ascending order (which is the case for all feature columns).
+     */
+    public static void sort(int[] values, int[] indexes, int n) {
+        if (n >= RADIX_THRESHOLD)
+            radixSort(values, indexes, n);
+        else
+            comparisonSort(values, indexes, n);
+    }
+
+    /**
+     * Equal values keep the ascending order of their indexes, whatever their order in input.
+     */
+    public static void comparisonSort(int[] values, int[] indexes, int n) {
+        // (value, index) packed in a long: sorting the longs sorts by value, then by index
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++)
+            packed[i] = ((long) values[i] << 32) | (indexes[i] & 0xFFFFFFFFL);
+
+        Arrays.sort(packed);
+
+        for (int i = 0; i < n; i++) {
+            values[i] = (int) (packed[i] >> 32);
+            indexes[i] = (int) packed[i];
+        }
+    }
+
+    /**
+     * Stable: equal values keep their order in input.
+     */
+    public static void radixSort(int[] values, int[] indexes, int n) {
+        if (n < 2)
+            return;
+
+        int min = values[0];
+        int max = values[0];
+        for (int i = 1; i < n; i++) {
+            if (values[i] < min)
+                min = values[i];
+            else if (values[i] > max)
+                max = values[i];
+        }
+
+        // values[i] - min fits in 32 unsigned bits, it only needs to be read with >>>
+        int bits = 64 - Long.numberOfLeadingZeros((long) max - min);
+        if (bits == 0)
+            return;
+        int passes = (bits + RADIX_BITS - 1) / RADIX_BITS;
+        int digitBits = (bits + passes - 1) / passes;
+        int mask = (1 << digitBits) - 1;
+        int[] count = new int[1 << digitBits];
+
+        int[] srcValues = values;
+        int[] srcIndexes = indexes;
+        int[] dstValues = new int[n];
+        int[] dstIndexes = new int[n];
+
+        for (int shift = 0; shift < bits; shift += digitBits) {
+            Arrays.fill(count, 0);
+            for (int i = 0; i < n; i++)
+                count[((srcValues[i] - min) >>> shift) & mask]++;
+
+            int position = 0;
+            for (int d = 0; d < count.length; d++) {
+                int c = count[d];
+                count[d] = position;
+                position += c;
+            }
+
+            for (int i = 0; i < n; i++) {
+                int target = count[((srcValues[i] - min) >>> shift) & mask]++;
+                dstValues[target] = srcValues[i];
+                dstIndexes[target] = srcIndexes[i];
+            }
+
+            int[] swap = srcValues;
+            srcValues = dstValues;
+            dstValues = swap;
+            swap = srcIndexes;
+            srcIndexes = dstIndexes;
+            dstIndexes = swap;
+        }
+
+        if (srcValues != values) {
+            System.arraycopy(srcValues, 0, values, 0, n);
+            System.arraycopy(srcIndexes, 0, indexes, 0, n);
+        }
+    }
+}
@@ -58,6 +58,16 @@ public class CascadeSerializer {
         return true;
     }
 
+    /**
+     * Records the size of the window the cascade is trained on, feature indexes of its StumpRules depend on it.
+     */
+    public static void setWindowSize(int width, int height) {
+        boolean init = CascadeSerializer.init;
+
+        root.setAttribute("width", String.valueOf(width));
+        root.setAttribute("height", String.valueOf(height));
+    }
+
     private static void updateFile() {
         source = new DOMSource(document);
         try {
@@ -88,6 +98,13 @@ public class CascadeSerializer {
     }
 
     public static ArrayList<ArrayList<StumpRule>> loadCascadeFromXML(String filePath, ArrayList<Float> tweaks) {
+        return loadCascadeFromXML(filePath, tweaks, new int[2]);
+    }
+
+    /**
+     * windowSize is filled with {width, height} of the training window (19x19 for cascades saved without it).
+     */
+    public static ArrayList<ArrayList<StumpRule>> loadCascadeFromXML(String filePath, ArrayList<Float> tweaks, int[] windowSize) {
         if (!fileExists(filePath)) {
             System.err.println("Could not load Cascade from file " + filePath + ": file does not exists!");
             System.exit(1);
@@ -101,6 +118,9 @@ public class CascadeSerializer {
             final Document document = builder.parse(new File(filePath));
             final Element root = document.getDocumentElement();
 
+            windowSize[0] = root.hasAttribute("width") ? Integer.valueOf(root.getAttribute("width")) : 19;
+            windowSize[1] = root.hasAttribute("height") ? Integer.valueOf(root.getAttribute("height")) : 19;
+
             final NodeList layers = root.getChildNodes();
 
             for (int i = 0; i < layers.getLength(); i++) {
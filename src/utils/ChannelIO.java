@@ -0,0 +1,194 @@
+package utils;
+
+import process.Conf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Positional file I/O over FileChannels, used by Serializer instead of opening a stream at each call.
+ *
+ * - Read channels stay open in a small LRU cache of Conf.IO_OPEN_FILES files, so that random accesses (an int of a
+ *   .haar file, a column of organizedFeatures.data) do not open and close the file each time. A cached channel is
+ *   dropped when its file is deleted by Utils.deleteFile or replaced (close), or when the file at its path is not the
+ *   one it opened anymore (checked with the file key, i.e. the inode).
+ * - Values go through a direct buffer of Conf.IO_BUFFER_BYTES per thread, viewed as a big-endian IntBuffer (same
+ *   format as DataOutputStream), so they are copied in bulk instead of one readInt at a time.
+ *
+ * Positional reads do not move the channel position, so threads can share a cached channel.
+ */
+public class ChannelIO {
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Conf.IO_BUFFER_BYTES));
+
+    private static final LinkedHashMap<String, Handle> handles = new LinkedHashMap<String, Handle>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Handle> eldest) {
+            if (size() <= Conf.IO_OPEN_FILES)
+                return false;
+            eldest.getValue().evict();
+            return true;
+        }
+    };
+
+    private static class Handle {
+        final FileChannel channel;
+        final Object fileKey;
+        int users = 0;
+        boolean evicted = false;
+
+        Handle(FileChannel channel, Object fileKey) {
+            this.channel = channel;
+            this.fileKey = fileKey;
+        }
+
+        // Closed once the last reader released it
+        void evict() {
+            evicted = true;
+            if (users == 0)
+                closeQuietly(channel);
+        }
+    }
+
+    private static synchronized Handle acquire(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        Handle handle = handles.get(filePath);
+        if (handle != null && fileKey != null && !fileKey.equals(handle.fileKey)) {
+            handles.remove(filePath);
+            handle.evict();
+            handle = null;
+        }
+        if (handle == null) {
+            handle = new Handle(FileChannel.open(path, StandardOpenOption.READ), fileKey);
+            handles.put(filePath, handle);
+        }
+        handle.users++;
+        return handle;
+    }
+
+    private static synchronized void release(Handle handle) {
+        handle.users--;
+        if (handle.evicted && handle.users == 0)
+            closeQuietly(handle.channel);
+    }
+
+    /**
+     * Closes the cached channel of a file, if any: to be called before deleting or replacing it
+     */
+    public static synchronized void close(String filePath) {
+        Handle handle = handles.remove(filePath);
+        if (handle != null)
+            handle.evict();
+    }
+
+    public static synchronized void closeAll() {
+        for (Handle handle : handles.values())
+            handle.evict();
+        handles.clear();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads bytes from position into dst (from its position to its limit), stopping at the end of the file.
+     * Returns the number of bytes read.
+     */
+    public static int readBytes(String filePath, long position, ByteBuffer dst) throws IOException {
+        Handle handle = acquire(filePath);
+        try {
+            int start = dst.position();
+            while (dst.hasRemaining()) {
+                int read = handle.channel.read(dst, position + dst.position() - start);
+                if (read < 0)
+                    break;
+            }
+            return dst.position() - start;
+        } finally {
+            release(handle);
+        }
+    }
+
+    /**
+     * Reads the ints [fromIndex, fromIndex + count[ of a file into values[offset..], stopping at the end of the file.
+     * Returns the number of ints read.
+     */
+    public static int readInts(String filePath, long fromIndex, int[] values, int offset, int count) throws IOException {
+        ByteBuffer bytes = buffers.get();
+        IntBuffer ints = ((ByteBuffer) bytes.clear()).asIntBuffer();
+        int chunk = bytes.capacity() / Integer.BYTES;
+        int done = 0;
+        while (done < count) {
+            bytes.clear().limit(Math.min(chunk, count - done) * Integer.BYTES);
+            int read = readBytes(filePath, (fromIndex + done) * Integer.BYTES, bytes) / Integer.BYTES;
+            ints.clear();
+            ints.get(values, offset + done, read);
+            done += read;
+            if (bytes.hasRemaining())
+                break;
+        }
+        return done;
+    }
+
+    public static int readInt(String filePath, long index) throws IOException {
+        ByteBuffer bytes = buffers.get();
+        bytes.clear().limit(Integer.BYTES);
+        if (readBytes(filePath, index * Integer.BYTES, bytes) < Integer.BYTES)
+            throw new EOFException(filePath + " has no int at " + index);
+        return bytes.getInt(0);
+    }
+
+    /**
+     * Appends values[0..count[ to a file, creating it if needed
+     */
+    public static void appendInts(String filePath, int[] values, int count) throws IOException {
+        ByteBuffer bytes = buffers.get();
+        IntBuffer ints = ((ByteBuffer) bytes.clear()).asIntBuffer();
+        int chunk = bytes.capacity() / Integer.BYTES;
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (int done = 0; done < count; ) {
+                int length = Math.min(chunk, count - done);
+                ints.clear();
+                ints.put(values, done, length);
+                bytes.clear().limit(length * Integer.BYTES);
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+                done += length;
+            }
+        }
+    }
+
+    /**
+     * Fills bytes from its position to its limit, then rewinds it
+     */
+    public static void readFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            int read = channel.read(bytes, position);
+            if (read < 0)
+                throw new EOFException("Unexpected end of file");
+            position += read;
+        }
+        bytes.rewind();
+    }
+
+    public static void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining())
+            position += channel.write(bytes, position);
+    }
+}
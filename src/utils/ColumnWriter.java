@@ -0,0 +1,163 @@
+package utils;
+
+import process.Conf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Long-lived writer of a file of columns (organizedFeatures.data, organizedSample.data, their runs), opened once for
+ * the whole organization.
+ *
+ * Threads write through their own Batch, which gathers consecutive columns (the tasks of ColumnSorter and of the
+ * organizers write their range of features in order) in a direct buffer of Conf.COLUMN_WRITE_BUFFER bytes and writes
+ * them with one positional write when it is full or when the next column is not contiguous. Columns larger than the
+ * buffer are written directly. With Conf.COLUMN_WRITE_BEHIND, full buffers are written by a background thread while
+ * the batch fills another one (at most MAX_PENDING buffers waiting).
+ *
+ * Nothing is forced to the disk before commit(), to be called once the file is complete, before it is recorded in the
+ * manifest or renamed over its previous version.
+ */
+public class ColumnWriter implements Closeable {
+    private static final int MAX_PENDING = 4;
+
+    private final String filePath;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ExecutorService flusher; // null without write-behind
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+    private final ConcurrentLinkedQueue<ByteBuffer> spare = new ConcurrentLinkedQueue<>();
+    private volatile IOException failure = null;
+
+    /**
+     * Opens (or creates) filePath and sets its length to length bytes
+     */
+    public ColumnWriter(String filePath, long length) throws IOException {
+        this.filePath = filePath;
+        this.file = new RandomAccessFile(filePath, "rw");
+        file.setLength(length);
+        this.channel = file.getChannel();
+        this.flusher = Conf.COLUMN_WRITE_BEHIND ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "ColumnWriter " + filePath);
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * New batch for the calling thread, to be closed (flushed) when its columns are written
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = spare.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(Conf.COLUMN_WRITE_BUFFER);
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        checkFailure();
+        if (flusher == null) {
+            ChannelIO.writeFully(channel, buffer, position);
+            return;
+        }
+        pending.acquireUninterruptibly();
+        flusher.execute(() -> {
+            try {
+                ChannelIO.writeFully(channel, buffer, position);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                buffer.clear();
+                spare.offer(buffer);
+                pending.release();
+            }
+        });
+    }
+
+    private void drain() throws IOException {
+        pending.acquireUninterruptibly(MAX_PENDING);
+        pending.release(MAX_PENDING);
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Could not write to " + filePath, failure);
+    }
+
+    /**
+     * Waits for the buffers being written and forces the file to the disk. All batches must have been closed.
+     */
+    public void commit() throws IOException {
+        drain();
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            if (flusher != null)
+                flusher.shutdown();
+            file.close();
+        }
+    }
+
+    public class Batch implements Closeable {
+        private ByteBuffer buffer = null;
+        private long start = -1; // Position in the file of the first buffered byte, -1 if nothing is buffered
+
+        /**
+         * Writes bytes (from its position to its limit) at position
+         */
+        public void write(ByteBuffer bytes, long position) throws IOException {
+            if (start >= 0 && (position != start + buffer.position() || bytes.remaining() > buffer.remaining()))
+                flush();
+            if (bytes.remaining() > Conf.COLUMN_WRITE_BUFFER) {
+                // Already large enough: written right away, as bytes is reused by the caller
+                checkFailure();
+                ChannelIO.writeFully(channel, bytes, position);
+                return;
+            }
+            if (buffer == null)
+                buffer = takeBuffer();
+            if (start < 0)
+                start = position;
+            buffer.put(bytes);
+        }
+
+        public void flush() throws IOException {
+            if (start < 0)
+                return;
+            buffer.flip();
+            ColumnWriter.this.write(buffer, start);
+            if (flusher != null)
+                buffer = takeBuffer();
+            else
+                buffer.clear();
+            start = -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            if (buffer != null)
+                spare.offer(buffer);
+            buffer = null;
+        }
+    }
+}
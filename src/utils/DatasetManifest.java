@@ -0,0 +1,192 @@
+package utils;
+
+import process.Conf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers the state of the dataset and of the files computed from it (artifacts: .haar files, organized features),
+ * so that a restart can tell what is still valid without reading any of them.
+ *
+ * - image:path      size,mtime of a dataset image when its .haar file was computed
+ * - artifact:path   size,mtime,crc32 of an artifact when it was written (crc32 empty if checksums are disabled)
+ * - fingerprint:key hash of the names, sizes and mtimes of a list of files (a dataset directory, the organized examples)
+ * - version         feature set the artifacts were computed with: if it changes, nothing recorded is valid anymore
+ *
+ * Checking an artifact only compares its size and mtime, unless Conf.MANIFEST_VERIFY_CHECKSUMS is set: then checksums
+ * are also computed when artifacts are recorded, and an artifact recorded without one is not trusted.
+ */
+public class DatasetManifest {
+    private static final String VERSION = "version";
+    private static final String IMAGE = "image:";
+    private static final String ARTIFACT = "artifact:";
+    private static final String FINGERPRINT = "fingerprint:";
+
+    private final String path;
+    private final Properties entries = new Properties();
+    private final boolean isNew;
+
+    private DatasetManifest(String path, String version) {
+        this.path = path;
+        boolean exists = Utils.fileExists(path);
+        if (exists) {
+            try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+                entries.load(reader);
+            } catch (IOException e) {
+                System.err.println("Could not read manifest " + path + ", ignoring it");
+                entries.clear();
+            }
+            if (!version.equals(entries.getProperty(VERSION))) {
+                System.out.println("Feature set changed (" + entries.getProperty(VERSION) + " -> " + version + "): all features will be computed again");
+                entries.clear();
+            }
+        }
+        entries.setProperty(VERSION, version);
+        this.isNew = !exists;
+    }
+
+    public static DatasetManifest load(String path, String version) {
+        return new DatasetManifest(path, version);
+    }
+
+    /**
+     * Version of the feature set for a window: changes if the features or the way they are computed change
+     */
+    public static String featureSetVersion(long featureCount) {
+        return Conf.FEATURE_SET_VERSION + "/" + featureCount;
+    }
+
+    /**
+     * True if there was no manifest: files computed before it existed are trusted, as they used to be.
+     */
+    public boolean isNew() {
+        return isNew;
+    }
+
+    public void save() {
+        String tmp = path + ".tmp";
+        try (Writer writer = Files.newBufferedWriter(Paths.get(tmp), StandardCharsets.UTF_8)) {
+            entries.store(writer, "Dataset manifest");
+        } catch (IOException e) {
+            System.err.println("Could not write to " + tmp);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        try {
+            Files.move(Paths.get(tmp), Paths.get(path), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not replace " + path);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * size,mtime of a file, null if it does not exist
+     */
+    public static String stat(String file) {
+        File f = new File(file);
+        if (!f.isFile())
+            return null;
+        return f.length() + "," + f.lastModified();
+    }
+
+    public static long checksum(String file) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            FileChannel channel = f.getChannel();
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read " + file);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Hash of the names, sizes and mtimes of files, in order
+     */
+    public static String fingerprint(List<String> files) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String file : files) {
+                digest.update(file.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '=');
+                digest.update(String.valueOf(stat(file)).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest())
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean matchesFingerprint(String key, String fingerprint) {
+        return fingerprint.equals(entries.getProperty(FINGERPRINT + key));
+    }
+
+    public String getFingerprint(String key) {
+        return entries.getProperty(FINGERPRINT + key);
+    }
+
+    public void setFingerprint(String key, String fingerprint) {
+        entries.setProperty(FINGERPRINT + key, fingerprint);
+    }
+
+    public void removeFingerprint(String key) {
+        entries.remove(FINGERPRINT + key);
+    }
+
+    public boolean hasImage(String image) {
+        return entries.containsKey(IMAGE + image);
+    }
+
+    /**
+     * True if image did not change since artifact was computed from it, and artifact did not change either
+     */
+    public boolean isUpToDate(String image, String artifact) {
+        String imageStat = stat(image);
+        return imageStat != null && imageStat.equals(entries.getProperty(IMAGE + image)) && isArtifactUnchanged(artifact);
+    }
+
+    public void recordImage(String image, String artifact) {
+        entries.setProperty(IMAGE + image, stat(image));
+        recordArtifact(artifact);
+    }
+
+    public void recordArtifact(String artifact) {
+        entries.setProperty(ARTIFACT + artifact, stat(artifact) + "," + (Conf.MANIFEST_VERIFY_CHECKSUMS ? checksum(artifact) : ""));
+    }
+
+    public void removeArtifact(String artifact) {
+        entries.remove(ARTIFACT + artifact);
+    }
+
+    public boolean isArtifactUnchanged(String artifact) {
+        String recorded = entries.getProperty(ARTIFACT + artifact);
+        String stat = stat(artifact);
+        if (recorded == null || stat == null || !recorded.startsWith(stat + ","))
+            return false;
+        return !Conf.MANIFEST_VERIFY_CHECKSUMS || recorded.equals(stat + "," + checksum(artifact));
+    }
+}
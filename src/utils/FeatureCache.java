@@ -0,0 +1,220 @@
+package utils;
+
+import process.Conf;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Feature values of the examples of a dataset (training and validation sets), cached in memory by
+ * buildImagesFeatures for O(1) access. Each training or evaluation owns its cache (see Classifier): two of them in the
+ * same JVM do not share their values.
+ *
+ * Values of files that are not cached are read from their .haar files.
+ */
+public class FeatureCache {
+    private final long featureCount;
+
+    // Stores feature values for each example: xxxImagesFeatures[i] contains all feature values of example i
+    private int[][] trainImagesFeatures = null;
+    private int[][] testImagesFeatures = null;
+    // Instead of xxxImagesFeatures when Conf.OFF_HEAP_FEATURES is set: row i contains all feature values of example i
+    private OffHeapIntMatrix trainOffHeapFeatures = null;
+    private OffHeapIntMatrix testOffHeapFeatures = null;
+
+    // Map a filepath to the index of xxxImagesFeatures
+    private final ConcurrentHashMap<String, Integer> fileIndex = new ConcurrentHashMap<>();
+
+    // If String matches a training example, then it returns 1
+    // If String matches a validation example, then it returns 0
+    private final ConcurrentHashMap<String, Integer> fileTraining = new ConcurrentHashMap<>();
+
+    private boolean inMemory = false;
+
+    public FeatureCache(long featureCount) {
+        this.featureCount = featureCount;
+    }
+
+    public long getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * True if the training set is cached
+     */
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
+    public void clearTrainImagesFeatures() {
+        trainImagesFeatures = null;
+        if (trainOffHeapFeatures != null) {
+            trainOffHeapFeatures.free();
+            trainOffHeapFeatures = null;
+        }
+        System.gc();
+    }
+
+    /**
+     * Frees the feature values cached by buildImagesFeatures for both sets (off-heap memory is given back right away)
+     */
+    public void freeImagesFeatures() {
+        clearTrainImagesFeatures();
+        testImagesFeatures = null;
+        if (testOffHeapFeatures != null) {
+            testOffHeapFeatures.free();
+            testOffHeapFeatures = null;
+        }
+        fileIndex.clear();
+        fileTraining.clear();
+        inMemory = false;
+    }
+
+    public boolean isOffHeap() {
+        return trainOffHeapFeatures != null;
+    }
+
+    /**
+     * Row of a training example in the cached training features, -1 if it is not cached
+     */
+    public int cachedTrainRow(String filePath) {
+        Integer index = fileIndex.get(filePath);
+        return index != null && fileTraining.get(filePath) == 1 ? index : -1;
+    }
+
+    public int cachedTrainFeature(int row, long featureIndex) {
+        if (trainOffHeapFeatures != null)
+            return trainOffHeapFeatures.get(row, featureIndex);
+        return trainImagesFeatures[row][(int) featureIndex];
+    }
+
+    public int[] readFeatures(String filePath) {
+        Integer index = fileIndex.get(filePath);
+        if (index != null) {
+            int[][] imagesFeatures = fileTraining.get(filePath) == 1 ? trainImagesFeatures : testImagesFeatures;
+            if (imagesFeatures != null)
+                return imagesFeatures[index];
+            OffHeapIntMatrix offHeapFeatures = fileTraining.get(filePath) == 1 ? trainOffHeapFeatures : testOffHeapFeatures;
+            if (offHeapFeatures != null) {
+                int[] result = new int[(int) featureCount];
+                offHeapFeatures.getRow(index, result);
+                return result;
+            }
+        }
+        return Serializer.readArrayFromDisk(filePath, featureCount);
+    }
+
+    public int readIntFromMemory(String filePath, long featureIndex) {
+        Integer index = fileIndex.get(filePath);
+        if (index == null)
+            return Serializer.readFeatureFromDisk(filePath, featureIndex);
+
+        if (fileTraining.get(filePath) == 1) {
+            if (trainImagesFeatures != null || trainOffHeapFeatures != null)
+                return cachedTrainFeature(index, featureIndex);
+        }
+        else if (testOffHeapFeatures != null)
+            return testOffHeapFeatures.get(index, featureIndex);
+        else if (testImagesFeatures != null)
+            return testImagesFeatures[index][(int) featureIndex];
+        return Serializer.readFeatureFromDisk(filePath, featureIndex);
+    }
+
+    public void buildImagesFeatures(ArrayList<String> faces, ArrayList<String> nonfaces, boolean trainingSet) {
+        buildImagesFeatures(faces, nonfaces, trainingSet, Conf.OFF_HEAP_FEATURES ? MemoryBudget.Tier.OFF_HEAP : MemoryBudget.Tier.HEAP);
+    }
+
+    /**
+     * Caches feature values in the given tier (see MemoryBudget): HEAP, OFF_HEAP, or DISK to leave them in .haar files
+     */
+    public void buildImagesFeatures(ArrayList<String> faces, ArrayList<String> nonfaces, boolean trainingSet, MemoryBudget.Tier tier) {
+        // Build xxxImagesFeatures arrays for O(1) access to feature values
+
+        System.out.println("Caching images features values for " + (trainingSet ? "training" : "validation") + " set:");
+        int posN = faces.size();
+        int negN = nonfaces.size();
+        int N = posN + negN;
+
+        if (tier != MemoryBudget.Tier.HEAP && tier != MemoryBudget.Tier.OFF_HEAP) {
+            System.out.println("  - Kept on disk (memory budget)");
+            if (trainingSet)
+                inMemory = false;
+            return;
+        }
+
+        boolean offHeap = tier == MemoryBudget.Tier.OFF_HEAP;
+        long presumableFreeMemory = offHeap ? Serializer.presumableFreeOffHeapMemory() : Serializer.presumableFreeMemory();
+        long neededMemory = featureCount * Integer.BYTES * N;
+        System.out.println("  - Needed " + (offHeap ? "off-heap " : "") + "memory: " + neededMemory + " (presumable free memory: " + presumableFreeMemory + ")");
+        if (!(presumableFreeMemory > neededMemory)) {
+            System.out.println("    - Could not store in memory");
+            if (trainingSet)
+                System.out.println("    - Consider training with Conf.TRAIN_ON_THE_FLY");
+            inMemory = false;
+            return;
+        }
+
+        OffHeapIntMatrix offHeapFeatures = null;
+        if (offHeap) {
+            System.out.println("  - Allocating " + N + " x " + featureCount + " off-heap...");
+            OffHeapIntMatrix previous = trainingSet ? trainOffHeapFeatures : testOffHeapFeatures;
+            if (previous != null)
+                previous.free();
+            try {
+                offHeapFeatures = new OffHeapIntMatrix(N, featureCount);
+            } catch (OutOfMemoryError e) {
+                System.out.println("    - Could not allocate off-heap memory (see -XX:MaxDirectMemorySize)");
+                if (trainingSet) {
+                    trainOffHeapFeatures = null;
+                    inMemory = false;
+                } else
+                    testOffHeapFeatures = null;
+                return;
+            }
+            if (trainingSet) {
+                trainOffHeapFeatures = null;
+                trainImagesFeatures = null;
+            } else {
+                testOffHeapFeatures = null;
+                testImagesFeatures = null;
+            }
+        }
+        else {
+            // Off-heap rows are addressed with longs, heap rows are arrays
+            if (featureCount > Integer.MAX_VALUE) {
+                System.out.println("Size exceeds Integer.MAX_VALUE: use Conf.OFF_HEAP_FEATURES");
+                System.exit(1);
+            }
+            System.out.println("  - Initializing int[" + N + "][" + featureCount + "]...");
+            if (trainingSet)
+                trainImagesFeatures = new int[N][(int) featureCount];
+            else
+                testImagesFeatures = new int[N][(int) featureCount];
+        }
+
+        System.out.println("  - Reading all values from disk to memory...");
+        for (int i = 0; i < N; i++) {
+            String filePath = (i < posN ? faces.get(i) : nonfaces.get(i - posN)) + Conf.FEATURE_EXTENSION;
+            fileIndex.putIfAbsent(filePath, i);
+            fileTraining.putIfAbsent(filePath, trainingSet ? 1 : 0);
+
+            if (offHeap) {
+                Serializer.readRowToOffHeap(filePath, offHeapFeatures, i);
+            }
+            else if (trainingSet) {
+                trainImagesFeatures[i] = Serializer.readArrayFromDisk(filePath, featureCount);
+            }
+            else {
+                testImagesFeatures[i] = Serializer.readArrayFromDisk(filePath, featureCount);
+            }
+
+        }
+        if (trainingSet && offHeap)
+            trainOffHeapFeatures = offHeapFeatures;
+        else if (offHeap)
+            testOffHeapFeatures = offHeapFeatures;
+
+        if (trainingSet)
+            inMemory = true;
+    }
+}
@@ -0,0 +1,90 @@
+package utils;
+
+/**
+ * Compact encoding of a feature vector (the content of a .haar file).
+ *
+ * Consecutive Haar values of a same feature type only differ by a one-pixel shift of their rectangles, so they are
+ * strongly correlated. Each value is stored as the zig-zag varint of its difference with the previous one, which
+ * takes 1 to 3 bytes for most of them instead of 4.
+ *
+ * Layout: MAGIC (int) | count (int) | count zig-zag varints
+ *
+ * MAGIC is far outside the range of any Haar value (|value| <= width * height * 255), so a raw .haar file never starts
+ * with it and both formats can be told apart by reading the first int.
+ */
+public class FeatureCodec {
+    public static final int MAGIC = 0x5648435A; // "VHCZ"
+    public static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    public static int zigZag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    public static int unZigZag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public static byte[] encode(int[] values, int size) {
+        // Worst case is 5 bytes per value
+        byte[] buffer = new byte[HEADER_BYTES + 5 * size];
+        int pos = writeInt(buffer, 0, MAGIC);
+        pos = writeInt(buffer, pos, size);
+
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            int v = zigZag(values[i] - previous);
+            previous = values[i];
+            while ((v & ~0x7F) != 0) {
+                buffer[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buffer[pos++] = (byte) v;
+        }
+
+        byte[] result = new byte[pos];
+        System.arraycopy(buffer, 0, result, 0, pos);
+        return result;
+    }
+
+    /**
+     * Decodes count values from data, starting at offset (just after the header), into result.
+     */
+    public static void decode(byte[] data, int offset, int count, int[] result) {
+        int pos = offset;
+        int previous = 0;
+        int n = Math.min(count, result.length);
+        for (int i = 0; i < n; i++) {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += unZigZag(v);
+            result[i] = previous;
+        }
+    }
+
+    public static int[] decode(byte[] data) {
+        if (readInt(data, 0) != MAGIC)
+            throw new IllegalArgumentException("Not an encoded feature vector");
+        int count = readInt(data, Integer.BYTES);
+        int[] result = new int[count];
+        decode(data, HEADER_BYTES, count, result);
+        return result;
+    }
+
+    private static int writeInt(byte[] buffer, int pos, int v) {
+        buffer[pos] = (byte) (v >>> 24);
+        buffer[pos + 1] = (byte) (v >>> 16);
+        buffer[pos + 2] = (byte) (v >>> 8);
+        buffer[pos + 3] = (byte) v;
+        return pos + 4;
+    }
+
+    private static int readInt(byte[] buffer, int pos) {
+        return ((buffer[pos] & 0xFF) << 24) | ((buffer[pos + 1] & 0xFF) << 16) | ((buffer[pos + 2] & 0xFF) << 8) | (buffer[pos + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,81 @@
+package utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a file of columns (organizedFeatures.data, organizedSample.data or binnedFeatures.data):
+ * columnCount columns of N values of valueBytes bytes each, big-endian.
+ *
+ * A mapping can not be larger than 2Go, so the file is mapped in several parts of whole columns. Columns are returned
+ * as IntBuffer/CharBuffer views over the mapping: nothing is copied to the heap, and the page cache is shared with
+ * other processes mapping the same file.
+ */
+public class MappedColumns {
+    private final MappedByteBuffer[] mappings;
+    private final int columnBytes;
+    private final long columnsByMapping;
+
+    public MappedColumns(String filePath, long columnCount, int N, int valueBytes) {
+        this(filePath, columnCount, N, valueBytes, Integer.MAX_VALUE);
+    }
+
+    public MappedColumns(String filePath, long columnCount, int N, int valueBytes, long maxMappingBytes) {
+        this.columnBytes = N * valueBytes;
+        this.columnsByMapping = Math.max(1, maxMappingBytes / columnBytes);
+        this.mappings = new MappedByteBuffer[(int) ((columnCount + columnsByMapping - 1) / columnsByMapping)];
+
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            FileChannel channel = file.getChannel();
+            for (int i = 0; i < mappings.length; i++) {
+                long columns = Math.min(columnsByMapping, columnCount - i * columnsByMapping);
+                mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY, i * columnsByMapping * columnBytes, columns * columnBytes);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not map " + filePath);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public int getMappingCount() {
+        return mappings.length;
+    }
+
+    private ByteBuffer column(long columnIndex) {
+        ByteBuffer bytes = mappings[(int) (columnIndex / columnsByMapping)].duplicate();
+        int start = (int) (columnIndex % columnsByMapping) * columnBytes;
+        bytes.position(start);
+        bytes.limit(start + columnBytes);
+        return bytes.slice();
+    }
+
+    public ByteBuffer byteColumn(long columnIndex) {
+        return column(columnIndex);
+    }
+
+    public IntBuffer intColumn(long columnIndex) {
+        return column(columnIndex).asIntBuffer();
+    }
+
+    public CharBuffer charColumn(long columnIndex) {
+        return column(columnIndex).asCharBuffer();
+    }
+
+    /**
+     * Unmaps the file right away, instead of when the GC collects the mappings: columns given before can not be read
+     * anymore.
+     */
+    public void close() {
+        for (int i = 0; i < mappings.length; i++) {
+            if (mappings[i] != null)
+                OffHeapIntMatrix.release(mappings[i]);
+            mappings[i] = null;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package utils;
+
+import process.Conf;
+
+import java.io.File;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * Splits the memory of a training between its data structures, and chooses where each one lives:
+ *
+ * - HEAP        Java arrays
+ * - OFF_HEAP    direct buffers (see OffHeapIntMatrix), when Conf.OFF_HEAP_FEATURES is set
+ * - MAPPED      memory mapped files (see MappedColumns), when Conf.MAP_ORGANIZED_FEATURES is set
+ * - DISK        read from their files when needed (organized columns are prefetched, see ColumnPrefetcher)
+ * - ON_THE_FLY  computed from integral images (see OnTheFlyFeatures)
+ *
+ * The budget is Conf.MEMORY_BUDGET, or the free heap plus the free physical memory if it is 0. Structures are planned
+ * by priority: the state of each example (labels, weights, predictions) first, then the organized training columns
+ * (read for every feature of every round), then the validation features (read once per layer), and the scratch
+ * memory of organizing and prefetching from what is left (see getOrganizeMemory and getPrefetchMemory: Conf is not
+ * changed). Several trainings can share a machine by giving each one
+ * its own Conf.MEMORY_BUDGET.
+ */
+public class MemoryBudget {
+    public enum Tier {HEAP, OFF_HEAP, MAPPED, DISK, ON_THE_FLY}
+
+    // labels, weights, predictions and a verdict as doubles, plus the removed flag
+    private static final long STATE_BYTES_BY_EXAMPLE = 4 * Double.BYTES + 1;
+
+    private final long budget;
+    private long remaining;
+    private long freeHeap;
+    private long freeOffHeap;
+    private final ArrayList<String> plan = new ArrayList<>();
+
+    private Tier organizedTier;
+    private Tier validationTier;
+    private long organizeMemory;
+    private long prefetchMemory;
+
+    private MemoryBudget(long budget) {
+        this.budget = budget;
+        this.remaining = budget;
+        this.freeHeap = Serializer.presumableFreeMemory();
+        this.freeOffHeap = Serializer.presumableFreeOffHeapMemory();
+    }
+
+    public static MemoryBudget plan(long featureCount, int trainN, int testN) {
+        long budget = Conf.MEMORY_BUDGET > 0 ? Conf.MEMORY_BUDGET
+                : saturatedAdd(Serializer.presumableFreeMemory(), Serializer.presumableFreeOffHeapMemory());
+        MemoryBudget memory = new MemoryBudget(budget);
+
+        memory.reserve("Examples state", Tier.HEAP, STATE_BYTES_BY_EXAMPLE * (trainN + testN));
+
+        long organizedSize = Serializer.organizedMemory(trainN);
+        if (Conf.TRAIN_ON_THE_FLY || organizedSize >= new File(Conf.TRAIN_DIR).getUsableSpace())
+            memory.organizedTier = Tier.ON_THE_FLY;
+        else if (Conf.MAP_ORGANIZED_FEATURES && organizedSize <= memory.remaining)
+            memory.organizedTier = Tier.MAPPED;
+        else if (!Conf.MAP_ORGANIZED_FEATURES && memory.fitsInHeap(organizedSize))
+            memory.organizedTier = Tier.HEAP;
+        else
+            memory.organizedTier = Tier.DISK;
+        memory.reserve("Organized training features", memory.organizedTier,
+                memory.organizedTier == Tier.ON_THE_FLY ? 0 : organizedSize);
+
+        if (Conf.STUMP_BINS > 0) {
+            // One byte by example and feature, plus the bounds of each bin
+            memory.reserve("Binned training features", Tier.MAPPED, featureCount * trainN);
+            memory.reserve("Bins bounds", Tier.HEAP, featureCount * Conf.STUMP_BINS * 2L * Integer.BYTES);
+        }
+
+        long validationSize = featureCount * Integer.BYTES * testN;
+        if (Conf.OFF_HEAP_FEATURES && memory.fitsOffHeap(validationSize))
+            memory.validationTier = Tier.OFF_HEAP;
+        else if (!Conf.OFF_HEAP_FEATURES && memory.fitsInHeap(validationSize))
+            memory.validationTier = Tier.HEAP;
+        else
+            memory.validationTier = Tier.DISK;
+        memory.reserve("Validation features", memory.validationTier, validationSize);
+
+        // Scratch memory: organizing is over before training starts, prefetching only happens from disk
+        memory.organizeMemory = memory.scratch(Conf.ORGANIZE_MEMORY_BUDGET);
+        memory.plan.add(line("Organizing scratch (transient)", Tier.HEAP, memory.organizeMemory));
+        memory.prefetchMemory = memory.organizedTier == Tier.DISK ? memory.scratch(Conf.PREFETCH_MEMORY) : 0;
+        if (memory.organizedTier == Tier.DISK)
+            memory.reserve("Column prefetching", Tier.HEAP, memory.prefetchMemory);
+
+        memory.print(featureCount, trainN, testN);
+        return memory;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * The wanted scratch memory, clamped to what is left when Conf.MEMORY_BUDGET is set
+     */
+    private long scratch(long wanted) {
+        return Conf.MEMORY_BUDGET > 0 ? Math.max(0, Math.min(wanted, remaining)) : wanted;
+    }
+
+    private boolean fitsInHeap(long bytes) {
+        return bytes <= remaining && bytes < freeHeap;
+    }
+
+    private boolean fitsOffHeap(long bytes) {
+        return bytes <= remaining && bytes < freeOffHeap;
+    }
+
+    private void reserve(String name, Tier tier, long bytes) {
+        plan.add(line(name, tier, bytes));
+        if (tier == Tier.DISK || tier == Tier.ON_THE_FLY)
+            return;
+        remaining -= bytes;
+        if (tier == Tier.HEAP)
+            freeHeap -= bytes;
+        else if (tier == Tier.OFF_HEAP)
+            freeOffHeap -= bytes;
+    }
+
+    private static String mo(long bytes) {
+        return bytes == Long.MAX_VALUE ? "unlimited" : bytes / (1024 * 1024) + "Mo";
+    }
+
+    private static String line(String name, Tier tier, long bytes) {
+        return String.format("    - %-32s %-10s %s", name, tier, mo(bytes));
+    }
+
+    private void print(long featureCount, int trainN, int testN) {
+        System.out.println("Memory plan for " + featureCount + " features x " + trainN + " training + " + testN + " validation examples:");
+        System.out.println("  - Budget: " + mo(budget) + (Conf.MEMORY_BUDGET > 0 ? " (Conf.MEMORY_BUDGET)" : " (free memory)"));
+        for (String line : plan)
+            System.out.println(line);
+        System.out.println("  - Unassigned: " + mo(Math.max(0, remaining)));
+    }
+
+    public Tier getOrganizedTier() {
+        return organizedTier;
+    }
+
+    public Tier getValidationTier() {
+        return validationTier;
+    }
+
+    /**
+     * Bytes StreamingOrganizer and IncrementalOrganizer may use (see FeatureExtractor.organizeFeatures)
+     */
+    public long getOrganizeMemory() {
+        return organizeMemory;
+    }
+
+    /**
+     * Bytes of columns ColumnPrefetcher may read ahead, 0 unless organized features are read from disk
+     */
+    public long getPrefetchMemory() {
+        return prefetchMemory;
+    }
+
+    /**
+     * Memory actually used: heap, direct buffers and mapped files
+     */
+    public static String usage() {
+        Runtime runtime = Runtime.getRuntime();
+        long direct = 0;
+        long mapped = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct"))
+                direct = pool.getMemoryUsed();
+            else if (pool.getName().equals("mapped"))
+                mapped = pool.getMemoryUsed();
+        }
+        return "heap " + mo(runtime.totalMemory() - runtime.freeMemory()) + ", off-heap " + mo(direct)
+                + ", mapped " + mo(mapped);
+    }
+
+    public void printUsage() {
+        System.out.println("  - Memory used: " + usage() + " (budget: " + mo(budget) + ")");
+    }
+}
@@ -0,0 +1,145 @@
+package utils;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * rows x columns int matrix stored outside of the heap, in direct buffers of 2^28 ints: it is not limited by
+ * the heap size nor by array indexes (values are addressed with a long), and it is never scanned by the GC.
+ *
+ * Direct memory is limited by -XX:MaxDirectMemorySize (the heap size by default). It is only given back by free(),
+ * which must be called when the matrix is not needed anymore.
+ */
+public class OffHeapIntMatrix {
+    private static final int SEGMENT_SHIFT = 28; // 1Go segments
+
+    private final long rows;
+    private final long columns;
+    private final int segmentShift;
+    private final long segmentInts;
+    private final long segmentMask;
+    private ByteBuffer[] segments;
+
+    public OffHeapIntMatrix(long rows, long columns) {
+        this(rows, columns, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Segments of 2^segmentShift ints (at most 2^28). Throws OutOfMemoryError (after freeing what was allocated) if
+     * there is not enough direct memory.
+     */
+    public OffHeapIntMatrix(long rows, long columns, int segmentShift) {
+        this.rows = rows;
+        this.columns = columns;
+        this.segmentShift = Math.min(segmentShift, SEGMENT_SHIFT);
+        this.segmentInts = 1L << this.segmentShift;
+        this.segmentMask = segmentInts - 1;
+        long size = rows * columns;
+        segments = new ByteBuffer[(int) ((size + segmentInts - 1) / segmentInts)];
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                long ints = Math.min(segmentInts, size - i * segmentInts);
+                segments[i] = ByteBuffer.allocateDirect((int) ints * Integer.BYTES).order(ByteOrder.nativeOrder());
+            }
+        } catch (OutOfMemoryError e) {
+            free();
+            throw e;
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getColumns() {
+        return columns;
+    }
+
+    public long getBytes() {
+        return rows * columns * Integer.BYTES;
+    }
+
+    public boolean isFreed() {
+        return segments == null;
+    }
+
+    public int get(long row, long column) {
+        long i = row * columns + column;
+        return segments[(int) (i >>> segmentShift)].getInt((int) (i & segmentMask) * Integer.BYTES);
+    }
+
+    public void set(long row, long column, int value) {
+        long i = row * columns + column;
+        segments[(int) (i >>> segmentShift)].putInt((int) (i & segmentMask) * Integer.BYTES, value);
+    }
+
+    /**
+     * Copies row into values[0..columns[ (columns must fit in an int)
+     */
+    public void getRow(long row, int[] values) {
+        long i = row * columns;
+        int done = 0;
+        while (done < columns) {
+            int offset = (int) (i & segmentMask);
+            int count = (int) Math.min(columns - done, segmentInts - offset);
+            ByteBuffer segment = segments[(int) (i >>> segmentShift)].duplicate().order(ByteOrder.nativeOrder());
+            segment.position(offset * Integer.BYTES);
+            segment.asIntBuffer().get(values, done, count);
+            done += count;
+            i += count;
+        }
+    }
+
+    /**
+     * Copies values[0..columns[ into row
+     */
+    public void setRow(long row, int[] values) {
+        setRow(row, 0, values, (int) columns);
+    }
+
+    /**
+     * Copies values[0..count[ into row, from column fromColumn: rows longer than an array are filled by parts
+     */
+    public void setRow(long row, long fromColumn, int[] values, int count) {
+        long i = row * columns + fromColumn;
+        int done = 0;
+        while (done < count) {
+            int offset = (int) (i & segmentMask);
+            int part = (int) Math.min(count - done, segmentInts - offset);
+            ByteBuffer segment = segments[(int) (i >>> segmentShift)].duplicate().order(ByteOrder.nativeOrder());
+            segment.position(offset * Integer.BYTES);
+            segment.asIntBuffer().put(values, done, part);
+            done += part;
+            i += part;
+        }
+    }
+
+    /**
+     * Gives the direct memory back right away, instead of when the GC collects the buffers. The matrix can not be used
+     * anymore.
+     */
+    public void free() {
+        if (segments == null)
+            return;
+        for (ByteBuffer segment : segments)
+            if (segment != null)
+                release(segment);
+        segments = null;
+    }
+
+    /**
+     * Frees a direct or mapped buffer through its cleaner
+     */
+    static void release(ByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null)
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (Exception e) {
+            // Not available on this JVM: the buffer is released when collected
+        }
+    }
+}
@@ -4,84 +4,147 @@ import process.Conf;
 import process.StumpRule;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static utils.Utils.fileExists;
 
 
 public class Serializer {
-    // Stores feature values for each example: xxxImagesFeatures[i] contains all feature values of example i
-    private static int[][] trainImagesFeatures = null;
-    private static int[][] testImagesFeatures = null;
-    private static int[][] organizedFeatures = null;
-    private static int[][] organizedSamples = null;
+    // Compressed .haar files decoded by readFeatureFromDisk, least recently used first
+    private static final LinkedHashMap<String, DecodedFeatures> decodedFeatures = new LinkedHashMap<String, DecodedFeatures>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
 
-    // Map a filepath to the index of xxxImagesFeatures
-    private static ConcurrentHashMap<String, Integer> fileIndex = new ConcurrentHashMap<>();
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DecodedFeatures> eldest) {
+            return size() > Conf.DECODED_FEATURE_FILES;
+        }
+    };
 
-    // If String matches a training example, then it returns 1
-    // If String matches a validation example, then it returns 0
-    private static ConcurrentHashMap<String, Integer> fileTraining = new ConcurrentHashMap<>();
+    private static class DecodedFeatures {
+        final String stat; // DatasetManifest.stat of the file when it was decoded: a recomputed file is decoded again
+        final int[] values;
 
-    private static boolean inMemory = false;
+        DecodedFeatures(String stat, int[] values) {
+            this.stat = stat;
+            this.values = values;
+        }
+    }
     public static long featureCount;
 
 
-    public static boolean isInMemory() {
-        return inMemory;
+    /**
+     * Size in bytes of an example index in organized samples (memory and organizedSample.data): indexes are stored as
+     * unsigned chars when they all fit in 16 bits, as ints otherwise.
+     */
+    public static int indexBytes(int trainN) {
+        return trainN <= Character.MAX_VALUE + 1 ? Character.BYTES : Integer.BYTES;
     }
 
-    public static void clearTrainImagesFeatures() {
-        trainImagesFeatures = null;
-        System.gc();
+    /**
+     * Puts indexes[0..count[ in bytes with the given width, ready to be written.
+     */
+    public static void putIndexes(ByteBuffer bytes, int[] indexes, int count, int indexBytes) {
+        bytes.clear();
+        if (indexBytes == Character.BYTES) {
+            CharBuffer chars = bytes.asCharBuffer();
+            for (int i = 0; i < count; i++)
+                chars.put((char) indexes[i]);
+        } else
+            bytes.asIntBuffer().put(indexes, 0, count);
+        bytes.limit(count * indexBytes);
     }
 
-    public static void loadOrganizedInMemory(String features, String samples, int trainN) {
-        if (organizedFeatures != null) {
-            System.err.println("Already loaded organizedFeatures in memory...");
-            System.exit(1);
-        }
-        organizedFeatures = new int[(int)featureCount][trainN];
-        organizedSamples = new int[(int)featureCount][trainN];
-        for (int i = 0; i < featureCount; i++) {
-            organizedFeatures[i] = readArrayFromDisk(features, i * trainN, trainN * (i + 1));
-            organizedSamples[i] = readArrayFromDisk(samples, i * trainN, trainN * (i + 1));
-        }
+    /**
+     * Gets indexes[0..count[ from bytes (read from its start) with the given width.
+     */
+    public static void getIndexes(ByteBuffer bytes, int[] indexes, int count, int indexBytes) {
+        if (indexBytes == Character.BYTES) {
+            CharBuffer chars = bytes.asCharBuffer();
+            for (int i = 0; i < count; i++)
+                indexes[i] = chars.get(i);
+        } else
+            bytes.asIntBuffer().get(indexes, 0, count);
     }
 
-    private static void skipBytesLong(DataInputStream dis, long skip) throws IOException {
-        long total = 0;
-        long cur;
+    /**
+     * Writes flags as their count, then a bitset of 8 flags by byte (training checkpoints, stump workers).
+     */
+    public static void writeFlags(DataOutputStream out, boolean[] flags) throws IOException {
+        byte[] bits = new byte[(flags.length + 7) / 8];
+        for (int i = 0; i < flags.length; i++)
+            if (flags[i])
+                bits[i >> 3] |= 1 << (i & 7);
+        out.writeInt(flags.length);
+        out.write(bits);
+    }
 
-        while ((total < skip) && ((cur = dis.skip(skip - total)) > 0)) {
-            total += cur;
-        }
+    public static boolean[] readFlags(DataInputStream in) throws IOException {
+        boolean[] flags = new boolean[in.readInt()];
+        byte[] bits = new byte[(flags.length + 7) / 8];
+        in.readFully(bits);
+        for (int i = 0; i < flags.length; i++)
+            flags[i] = (bits[i >> 3] & (1 << (i & 7))) != 0;
+        return flags;
     }
 
-    public static void appendArrayToDisk(String filePath, int[] values, long size) {
-        DataOutputStream os;
+    private static ByteBuffer readBytesFromDisk(String filePath, long position, int size) {
+        ByteBuffer bytes = ByteBuffer.allocate(size);
         try {
-            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath, fileExists(filePath))));
-            for (long i = 0; i < size; i++)
-                os.writeInt(values[(int) i]);
-            os.close();
+            ChannelIO.readBytes(filePath, position, bytes);
         } catch (IOException e) {
-            System.err.println("Could not write to " + filePath);
             e.printStackTrace();
             System.exit(1);
         }
+        bytes.clear();
+        return bytes;
     }
 
-    public static void appendArrayToDisk(String filePath, ArrayList<Integer> values) {
-        DataOutputStream os;
+    /**
+     * Reads example indexes [fromIndex, toIndex[ of an organized samples file of trainN examples.
+     */
+    public static int[] readIndexesFromDisk(String filePath, long fromIndex, long toIndex, int trainN) {
+        int[] result = new int[(int) (toIndex - fromIndex)];
+        readIndexesFromDisk(filePath, fromIndex, trainN, result);
+        return result;
+    }
+
+    /**
+     * Same as readIndexesFromDisk(filePath, fromIndex, fromIndex + result.length, trainN), into result
+     */
+    public static void readIndexesFromDisk(String filePath, long fromIndex, int trainN, int[] result) {
+        int indexBytes = indexBytes(trainN);
+        getIndexes(readBytesFromDisk(filePath, fromIndex * indexBytes, result.length * indexBytes), result, result.length, indexBytes);
+    }
+
+    public static char[] readNarrowIndexesFromDisk(String filePath, long fromIndex, long toIndex) {
+        char[] result = new char[(int) (toIndex - fromIndex)];
+        readBytesFromDisk(filePath, fromIndex * Character.BYTES, result.length * Character.BYTES).asCharBuffer().get(result);
+        return result;
+    }
+
+    public static int readIndexFromDisk(String filePath, long index, int trainN) {
+        return readIndexesFromDisk(filePath, index, index + 1, trainN)[0];
+    }
+
+    /**
+     * Checks if filePath contains exactly count example indexes of an organized samples file of trainN examples.
+     */
+    public static boolean validSizeOfIndexes(String filePath, long count, int trainN) {
+        return new File(filePath).length() == count * indexBytes(trainN);
+    }
+
+    public static void appendArrayToDisk(String filePath, int[] values, long size) {
         try {
-            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath, fileExists(filePath))));
-            for (int i : values)
-                os.writeInt(i);
-            os.close();
+            ChannelIO.appendInts(filePath, values, (int) size);
         } catch (IOException e) {
             System.err.println("Could not write to " + filePath);
             e.printStackTrace();
@@ -89,6 +152,13 @@ public class Serializer {
         }
     }
 
+    public static void appendArrayToDisk(String filePath, ArrayList<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = values.get(i);
+        appendArrayToDisk(filePath, array, array.length);
+    }
+
     public static void writeArrayToDisk(String filePath, int[] values, long size) {
         if (fileExists(filePath)) {
             new FileAlreadyExistsException(filePath).printStackTrace();
@@ -105,115 +175,120 @@ public class Serializer {
         appendArrayToDisk(filePath, values);
     }
 
-    public static int[] readArrayFromDisk(String filePath, long expectedSize) {
-        int[] result = new int[(int) expectedSize];
-        DataInputStream os;
+    /**
+     * Writes the feature vector of an image (.haar file), compressed if Conf.COMPRESS_FEATURES is set.
+     * Both formats are transparently decoded by readArrayFromDisk(filePath, expectedSize) and readFeatures.
+     */
+    public static void writeFeaturesToDisk(String filePath, int[] values, long size) {
+        if (!Conf.COMPRESS_FEATURES) {
+            writeArrayToDisk(filePath, values, size);
+            return;
+        }
+        if (fileExists(filePath)) {
+            new FileAlreadyExistsException(filePath).printStackTrace();
+            System.exit(1);
+        }
         try {
-            long c = 0;
-            os = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)));
-            while (true) {
-                if (c == expectedSize)
-                    break;
-                try {
-                    result[(int)c] = os.readInt();
-                    c++;
-                } catch (EOFException e) {
-                    break;
-                }
-            }
-            os.close();
+            Files.write(Paths.get(filePath), FeatureCodec.encode(values, (int) size));
         } catch (IOException e) {
+            System.err.println("Could not write to " + filePath);
             e.printStackTrace();
             System.exit(1);
         }
-        return result;
     }
 
-    public static int[] readFeatures(String filePath) {
-        if (inMemory && fileIndex.containsKey(filePath)) {
-        if (fileTraining.get(filePath) == 1)
-            return trainImagesFeatures[fileIndex.get(filePath)];
-        else
-            return testImagesFeatures[fileIndex.get(filePath)];
+    private static int[] readCompressedFromDisk(String filePath, long expectedSize) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) new File(filePath).length());
+        ChannelIO.readBytes(filePath, 0, bytes);
+        int[] result = new int[(int) expectedSize];
+        FeatureCodec.decode(bytes.array(), FeatureCodec.HEADER_BYTES, bytes.getInt(Integer.BYTES), result);
+        return result;
     }
-//        System.out.println("readFeatures(" + filePath + ") not in memory...");
-        return readArrayFromDisk(filePath, featureCount);
-}
 
-    public static int[] featureExamplesIndexes(String filePath, long featureIndex, int trainN) {
-        if (organizedSamples != null)
-            return organizedSamples[(int)featureIndex];
-        return readArrayFromDisk(filePath, featureIndex * trainN, trainN * (featureIndex + 1));
+    /**
+     * True if a feature vector file starts with FeatureCodec.MAGIC, which can not be a raw value
+     */
+    private static boolean isCompressed(String filePath) throws IOException {
+        int[] header = new int[1];
+        return ChannelIO.readInts(filePath, 0, header, 0, 1) == 1 && header[0] == FeatureCodec.MAGIC;
     }
 
-    public static int[] featureValues(String filePath, long featureIndex, int trainN) {
-        if (organizedFeatures != null)
-            return organizedFeatures[(int)featureIndex];
-        return readArrayFromDisk(filePath, featureIndex * trainN, trainN * (featureIndex + 1));
+    public static int[] readArrayFromDisk(String filePath, long expectedSize) {
+        int[] result = new int[(int) expectedSize];
+        try {
+            if (isCompressed(filePath))
+                return readCompressedFromDisk(filePath, expectedSize);
+            ChannelIO.readInts(filePath, 0, result, 0, result.length);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return result;
     }
 
-    public static int[] readArrayFromDisk(String filePath, long fromIndex, long toIndex) {
-        int[] result = new int[(int) (toIndex-fromIndex)];
-
-        DataInputStream os;
+    /**
+     * Reads a feature vector file into a row of matrix by chunks, so that rows can have more than Integer.MAX_VALUE
+     * values. Missing values are left to 0. Compressed files are decoded at once, their count being an int.
+     */
+    static void readRowToOffHeap(String filePath, OffHeapIntMatrix matrix, long row) {
+        int[] chunk = new int[(int) Math.min(matrix.getColumns(), Conf.IO_BUFFER_BYTES / Integer.BYTES)];
         try {
-            os = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)));
-            skipBytesLong(os, Integer.BYTES * fromIndex);
-            long i = 0;
-            while (true) {
-                if (i == (toIndex-fromIndex))
-                    break;
-                try {
-                    result[(int) i] = os.readInt();
-                    i++;
-                } catch (EOFException e) {
-                    break;
-                }
-                if (i == (toIndex - fromIndex))
-                    break;
+            if (isCompressed(filePath)) {
+                int[] values = readCompressedFromDisk(filePath, readIntFromDisk(filePath, 1));
+                matrix.setRow(row, 0, values, (int) Math.min(values.length, matrix.getColumns()));
+                return;
+            }
+            for (long column = 0; column < matrix.getColumns(); ) {
+                int count = (int) Math.min(chunk.length, matrix.getColumns() - column);
+                int read = ChannelIO.readInts(filePath, column, chunk, 0, count);
+                matrix.setRow(row, column, chunk, read);
+                if (read < count)
+                    return;
+                column += read;
             }
-            os.close();
         } catch (IOException e) {
+            System.err.println("Could not read features from " + filePath);
             e.printStackTrace();
             System.exit(1);
         }
-        return result;
     }
 
     /**
-     * Checks if filePath contains exactly expectedSize values.
+     * Feature vector of an image (.haar file), see FeatureCache.readFeatures for the values cached in memory
      */
-    public static boolean validSizeOfArray(String filePath, long expectedSize) {
-        DataInputStream os;
+    public static int[] readFeatures(String filePath) {
+        return readArrayFromDisk(filePath, featureCount);
+    }
 
+    public static int[] readArrayFromDisk(String filePath, long fromIndex, long toIndex) {
+        int[] result = new int[(int) (toIndex-fromIndex)];
+        readArrayFromDisk(filePath, fromIndex, result);
+        return result;
+    }
+
+    /**
+     * Same as readArrayFromDisk(filePath, fromIndex, fromIndex + result.length), into result
+     */
+    public static void readArrayFromDisk(String filePath, long fromIndex, int[] result) {
         try {
-            os = new DataInputStream(new FileInputStream(filePath));
-            skipBytesLong(os, Integer.BYTES * (expectedSize - 1));
-            os.readInt(); // Read the last expected int
-            try {
-                os.readInt(); // Should raise EOFException if expectedSize is right
-                os.close();
-            } catch (EOFException e) {
-                return true;
-            }
-        } catch (EOFException e) {
-            return false;
+            ChannelIO.readInts(filePath, fromIndex, result, 0, result.length);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
         }
-        return false;
     }
 
-    public static int readIntFromDisk(String filePath, long valueIndex) {
-        DataInputStream os;
+    /**
+     * Checks if filePath contains exactly expectedSize values.
+     */
+    public static boolean validSizeOfArray(String filePath, long expectedSize) {
+        return new File(filePath).length() == expectedSize * Integer.BYTES;
+    }
 
+    public static int readIntFromDisk(String filePath, long valueIndex) {
         int i = 0;
         try {
-            os = new DataInputStream(new FileInputStream(filePath));
-            skipBytesLong(os, Integer.BYTES * valueIndex);
-            i = os.readInt();
-            os.close();
+            i = ChannelIO.readInt(filePath, valueIndex);
         } catch (IOException e) {
             System.err.println("Could not read int from " + filePath + "!");
             e.printStackTrace();
@@ -223,61 +298,66 @@ public class Serializer {
         return i;
     }
 
-    public static int readIntFromMemory(String filePath, long featureIndex) {
-        if (!inMemory)
-            return readIntFromDisk(filePath, featureIndex);
-
-        if (fileTraining.get(filePath) == 1)
-            return trainImagesFeatures[fileIndex.get(filePath)][(int) featureIndex];
-        else
-            return testImagesFeatures[fileIndex.get(filePath)][(int) featureIndex];
+    /**
+     * Same as readIntFromDisk, but for a feature vector file (.haar) that may be compressed. A compressed file is
+     * decoded once and kept in a small LRU cache (see decodedFeatures), as varints can not be read at an index.
+     */
+    public static int readFeatureFromDisk(String filePath, long featureIndex) {
+        int i = readIntFromDisk(filePath, 0);
+        if (i == FeatureCodec.MAGIC)
+            return decodedFeatures(filePath)[(int) featureIndex];
+        if (featureIndex == 0)
+            return i;
+        return readIntFromDisk(filePath, featureIndex);
     }
 
-    public static void buildImagesFeatures(ArrayList<String> faces, ArrayList<String> nonfaces, boolean trainingSet) {
-        // Build xxxImagesFeatures arrays for O(1) access to feature values
-
-        System.out.println("Caching images features values for " + (trainingSet ? "training" : "validation") + " set:");
-        int posN = faces.size();
-        int negN = nonfaces.size();
-        int N = posN + negN;
-
-        long presumableFreeMemory = Runtime.getRuntime().maxMemory() - (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
-        long neededMemory = featureCount * Integer.BYTES * N;
-        System.out.println("  - Needed memory: " + neededMemory + " (presumable free memory: " + presumableFreeMemory + ")");
-        if (!(presumableFreeMemory > neededMemory)) {
-            System.out.println("    - Could not store in memory");
-            inMemory = false;
-            return;
+    private static int[] decodedFeatures(String filePath) {
+        String stat = DatasetManifest.stat(filePath);
+        synchronized (decodedFeatures) {
+            DecodedFeatures decoded = decodedFeatures.get(filePath);
+            if (decoded != null && decoded.stat.equals(stat))
+                return decoded.values;
         }
 
-        if (featureCount > Integer.MAX_VALUE) {
-            System.out.println("Size exceeds Integer.MAX_VALUE");
+        int[] values = null;
+        try {
+            values = readCompressedFromDisk(filePath, readIntFromDisk(filePath, 1));
+        } catch (IOException e) {
+            System.err.println("Could not read compressed features from " + filePath);
+            e.printStackTrace();
             System.exit(1);
         }
+        synchronized (decodedFeatures) {
+            decodedFeatures.put(filePath, new DecodedFeatures(stat, values));
+        }
+        return values;
+    }
 
-        System.out.println("  - Initializing int[" + N + "][" + featureCount + "]...");
-        if (trainingSet)
-            trainImagesFeatures = new int[N][(int) featureCount];
-        else
-            testImagesFeatures = new int[N][(int) featureCount];
-
+    public static long presumableFreeMemory() {
+        return Runtime.getRuntime().maxMemory() - (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    }
 
-        System.out.println("  - Reading all values from disk to memory...");
-        for (int i = 0; i < N; i++) {
-            String filePath = (i < posN ? faces.get(i) : nonfaces.get(i - posN)) + Conf.FEATURE_EXTENSION;
-            fileIndex.putIfAbsent(filePath, i);
-            fileTraining.putIfAbsent(filePath, trainingSet ? 1 : 0);
+    /**
+     * Free physical memory, for off-heap feature values
+     */
+    public static long presumableFreeOffHeapMemory() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+        return Long.MAX_VALUE;
+    }
 
-            if (trainingSet) {
-                trainImagesFeatures[i] = Arrays.copyOf(readFeatures(filePath), (int) featureCount);
-            }
-            else {
-                testImagesFeatures[i] = Arrays.copyOf(readFeatures(filePath), (int) featureCount);
-            }
+    /**
+     * Memory needed to store the feature values of N examples
+     */
+    public static long neededMemory(long N) {
+        return featureCount * Integer.BYTES * N;
+    }
 
-        }
-        
-        if (trainingSet)
-            inMemory = true;
+    /**
+     * Memory needed to store the organized features (values + example indexes) of trainN examples
+     */
+    public static long organizedMemory(int trainN) {
+        return neededMemory(trainN) + featureCount * indexBytes(trainN) * trainN;
     }
 }
\ No newline at end of file
@@ -112,6 +112,7 @@ public class Utils {
     }
 
     public static void deleteFile(String filePath) {
+        ChannelIO.close(filePath);
         try {
             Files.delete(Paths.get(filePath));
         } catch (IOException e) {
@@ -0,0 +1,44 @@
+package process;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestClassifier {
+
+    @Test
+    public void featureSamplingTest() {
+        boolean[] blacklist = new boolean[5000];
+        for (int i = 0; i < blacklist.length; i += 7)
+            blacklist[i] = true;
+
+        // The same seed draws the same features: a training can be reproduced
+        ArrayList<Integer> sampled = Classifier.sampleFeatures(new Random(Conf.FEATURE_SAMPLING_SEED), blacklist, 0.1);
+        assertEquals(sampled, Classifier.sampleFeatures(new Random(Conf.FEATURE_SAMPLING_SEED), blacklist, 0.1));
+        Assert.assertFalse(sampled.equals(Classifier.sampleFeatures(new Random(Conf.FEATURE_SAMPLING_SEED + 1), blacklist, 0.1)));
+        Assert.assertTrue(sampled.size() > 300 && sampled.size() < 600);
+        for (int i = 0; i < sampled.size(); i++) {
+            Assert.assertFalse(blacklist[sampled.get(i)]);
+            if (i > 0)
+                Assert.assertTrue(sampled.get(i - 1) < sampled.get(i));
+        }
+
+        // A ratio of 1 gives all the features not blacklisted, without drawing
+        Random sampler = new Random(Conf.FEATURE_SAMPLING_SEED);
+        ArrayList<Integer> all = Classifier.sampleFeatures(sampler, blacklist, 1);
+        ArrayList<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < blacklist.length; i++)
+            if (!blacklist[i])
+                expected.add(i);
+        assertEquals(expected, all);
+        assertEquals(new Random(Conf.FEATURE_SAMPLING_SEED).nextDouble(), sampler.nextDouble(), 0);
+
+        // At least one feature is searched
+        assertEquals(Collections.singletonList(1), Classifier.sampleFeatures(new Random(Conf.FEATURE_SAMPLING_SEED), blacklist, 1e-12));
+    }
+}
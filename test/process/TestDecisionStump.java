@@ -0,0 +1,86 @@
+package process;
+
+import org.junit.Test;
+import process.features.FeatureFixture;
+import process.features.FeatureStore;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestDecisionStump {
+
+    /**
+     * Best rule of a feature, each candidate threshold being scored from scratch
+     */
+    private static StumpRule baselineStump(FeatureStore store, byte[] labels, double[] weights, long featureIndex,
+                                           double totalWeightPos, double totalWeightNeg, double minWeight, boolean[] removed) {
+        int[] values = store.sortedColumn(featureIndex)[1];
+        int N = values.length;
+        ArrayList<double[]> candidates = new ArrayList<>(); // {threshold, margin}
+        candidates.add(new double[]{values[0] - 1, -1});
+        for (int i = 0; i + 1 < N; i++)
+            if (values[i] != values[i + 1])
+                candidates.add(new double[]{(values[i] + values[i + 1]) / 2.0, values[i + 1] - values[i]});
+        candidates.add(new double[]{values[N - 1] + 1, 0});
+
+        int[][] column = store.sortedColumn(featureIndex);
+        StumpRule best = null;
+        for (double[] candidate : candidates) {
+            double leftWeightPos = 0;
+            double leftWeightNeg = 0;
+            for (int i = 0; i < N; i++) {
+                int exampleIndex = column[0][i];
+                if (removed[exampleIndex] || column[1][i] > candidate[0])
+                    continue;
+                if (labels[exampleIndex] < 0)
+                    leftWeightNeg += weights[exampleIndex];
+                else
+                    leftWeightPos += weights[exampleIndex];
+            }
+            double errorPlus = leftWeightPos + (totalWeightNeg - leftWeightNeg);
+            double errorMinus = (totalWeightPos - leftWeightPos) + leftWeightNeg;
+            double error = Math.max(Math.min(errorPlus, errorMinus), minWeight * 0.9);
+            StumpRule rule = new StumpRule(featureIndex, error, candidate[0], candidate[1], errorPlus < errorMinus ? 1 : -1);
+            if (best == null || rule.compare(best))
+                best = rule;
+        }
+        return best;
+    }
+
+    @Test
+    public void decisionStumpBaselineTest() throws Exception {
+        int N = 40;
+        Random random = new Random(44);
+        // Few distinct values: many examples share a value, and several thresholds share an error
+        FeatureStore store = FeatureFixture.syntheticStore(200, N, 6, 44);
+        for (int trial = 0; trial < 20; trial++) {
+            byte[] labels = new byte[N];
+            double[] weights = new double[N];
+            boolean[] removed = new boolean[N];
+            double totalWeightPos = 0;
+            double totalWeightNeg = 0;
+            for (int i = 0; i < N; i++) {
+                labels[i] = (byte) (random.nextBoolean() ? 1 : -1);
+                weights[i] = (1 + random.nextInt(4)) / 64.0; // Sums are exact: ties are not broken by rounding
+                removed[i] = trial > 0 && random.nextInt(4) == 0;
+                if (removed[i])
+                    continue;
+                if (labels[i] > 0)
+                    totalWeightPos += weights[i];
+                else
+                    totalWeightNeg += weights[i];
+            }
+
+            for (long featureIndex = 0; featureIndex < 200; featureIndex += 9) {
+                StumpRule expected = baselineStump(store, labels, weights, featureIndex, totalWeightPos, totalWeightNeg, 0.01, removed);
+                StumpRule rule = new DecisionStump(store, labels, weights, featureIndex, N, totalWeightPos, totalWeightNeg, 0.01, removed).call();
+                assertEquals(expected.threshold, rule.threshold, 0);
+                assertEquals(expected.margin, rule.margin, 0);
+                assertEquals(expected.toggle, rule.toggle);
+                assertEquals(expected.error, rule.error, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package process;
+
+import org.junit.Test;
+import process.features.FeatureFixture;
+import process.features.FeatureStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestStumpSearch {
+
+    @Test
+    public void stumpSearchTest() throws Exception {
+        int N = 30;
+        // Few distinct values: many features have rules of the same error, the first one in the list must win
+        FeatureStore store = FeatureFixture.syntheticStore(3000, N, 3, 45);
+        Random random = new Random(45);
+        byte[] labels = new byte[N];
+        double[] weights = new double[N];
+        boolean[] removed = new boolean[N];
+        for (int i = 0; i < N; i++) {
+            labels[i] = (byte) (i < N / 2 ? 1 : -1);
+            weights[i] = 1.0 / N;
+            removed[i] = random.nextInt(5) == 0;
+        }
+        double totalWeightPos = 0;
+        double totalWeightNeg = 0;
+        for (int i = 0; i < N; i++)
+            if (!removed[i] && labels[i] > 0)
+                totalWeightPos += weights[i];
+            else if (!removed[i])
+                totalWeightNeg += weights[i];
+
+        // Blocks of 1 to 256 features (see StumpSearch.search), depending on the pool and on the number of features
+        for (int size : new int[]{1, 5, 37, 500, 3000}) {
+            ArrayList<Integer> features = new ArrayList<>();
+            for (int i = 0; i < size; i++)
+                features.add(size == 3000 ? i : random.nextInt(3000));
+            Collections.sort(features);
+
+            StumpRule expected = null;
+            for (int featureIndex : features) {
+                StumpRule rule = new DecisionStump(store, labels, weights, featureIndex, N, totalWeightPos, totalWeightNeg, 0.01, removed).call();
+                if (expected == null || rule.compare(expected))
+                    expected = rule;
+            }
+
+            for (int threads : new int[]{1, 2, 3, 8}) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                StumpRule rule = StumpSearch.search(pool, store, null, labels, weights, features,
+                        totalWeightPos, totalWeightNeg, 0.01, removed, null);
+                pool.shutdown();
+                assertEquals(expected.featureIndex, rule.featureIndex);
+                assertEquals(expected.threshold, rule.threshold, 0);
+                assertEquals(expected.margin, rule.margin, 0);
+                assertEquals(expected.toggle, rule.toggle);
+                assertEquals(expected.error, rule.error, 0);
+            }
+        }
+    }
+}
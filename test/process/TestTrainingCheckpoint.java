@@ -0,0 +1,202 @@
+package process;
+
+import org.junit.Assert;
+import org.junit.Test;
+import process.features.FeatureFixture;
+import utils.Utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestTrainingCheckpoint {
+
+    @Test
+    public void writeReadCheckpoint() throws IOException {
+        Path dir = Files.createTempDirectory("vj-test");
+        String path = dir + "/training.checkpoint";
+
+        TrainingCheckpoint checkpoint = new TrainingCheckpoint();
+        checkpoint.trainDir = "data/trainset";
+        checkpoint.testDir = "data/testset";
+        checkpoint.initialPositiveWeight = 0.5f;
+        checkpoint.cascadeTargetAccuracy = 0.985f;
+        checkpoint.cascadeTargetFPR = 0.0000005f;
+        checkpoint.layerTargetFPR = 0.5f;
+        checkpoint.withTweaks = true;
+        checkpoint.featureCount = 63960;
+        checkpoint.countTrainPos = 2;
+        checkpoint.countTrainNeg = 3;
+        checkpoint.countTestPos = 1;
+        checkpoint.countTestNeg = 1;
+
+        checkpoint.round = 1;
+        checkpoint.layerStarted = true;
+        checkpoint.cascade = TrainingCheckpoint.newCascade(3);
+        checkpoint.cascade[0] = new ArrayList<>(Arrays.asList(new StumpRule(12, 0.1, 3.5, 2, 1), new StumpRule(7, 0.2, -1, 0, -1)));
+        checkpoint.cascade[1] = new ArrayList<>(Arrays.asList(new StumpRule(40000, 0.3, 12, 4, 1)));
+        checkpoint.tweaks = new ArrayList<>(Arrays.asList(-0.25f, 0.01f, 0f));
+        checkpoint.layerMemory = new ArrayList<>(Arrays.asList(2));
+        checkpoint.accumulatedFPR = 0.4;
+        checkpoint.weightsTrain = new double[]{0.25, 0.25, 0, 0.3, 0.2};
+        checkpoint.totalWeightPos = 0.5;
+        checkpoint.totalWeightNeg = 0.5;
+        checkpoint.minWeight = 0.2;
+        checkpoint.maxWeight = 0.3;
+        checkpoint.removedFromTrain = new boolean[]{false, false, true, false, false};
+        checkpoint.removedFromTest = new boolean[]{false, true};
+        checkpoint.stumpBlacklist = new boolean[63960];
+        checkpoint.stumpBlacklist[7] = checkpoint.stumpBlacklist[12] = checkpoint.stumpBlacklist[40000] = true;
+        checkpoint.usedTrainPos = 2;
+        checkpoint.usedTrainNeg = 2;
+        checkpoint.usedTestPos = 1;
+        checkpoint.usedTestNeg = 0;
+        checkpoint.featureSampler = new Random(42);
+        checkpoint.featureSampler.nextDouble();
+        checkpoint.samplingGapSum = 0.01;
+        checkpoint.samplingGapCount = 3;
+
+        Assert.assertTrue(checkpoint.write(path));
+        Assert.assertFalse(Utils.fileExists(path + ".tmp"));
+        TrainingCheckpoint read = TrainingCheckpoint.read(path);
+
+        assertEquals(checkpoint.trainDir, read.trainDir);
+        assertEquals(checkpoint.layerTargetFPR, read.layerTargetFPR, 0);
+        assertEquals(checkpoint.featureCount, read.featureCount);
+        assertEquals(checkpoint.countTrainNeg, read.countTrainNeg);
+        assertEquals(1, read.round);
+        Assert.assertTrue(read.layerStarted);
+        assertEquals(3, read.cascade.length);
+        Assert.assertNull(read.cascade[2]);
+        for (int layer = 0; layer < 2; layer++) {
+            assertEquals(checkpoint.cascade[layer].size(), read.cascade[layer].size());
+            for (int i = 0; i < read.cascade[layer].size(); i++) {
+                StumpRule expected = checkpoint.cascade[layer].get(i);
+                StumpRule rule = read.cascade[layer].get(i);
+                assertEquals(expected.featureIndex, rule.featureIndex);
+                assertEquals(expected.error, rule.error, 0);
+                assertEquals(expected.threshold, rule.threshold, 0);
+                assertEquals(expected.margin, rule.margin, 0);
+                assertEquals(expected.toggle, rule.toggle);
+            }
+        }
+        assertEquals(checkpoint.tweaks, read.tweaks);
+        assertEquals(checkpoint.layerMemory, read.layerMemory);
+        Assert.assertArrayEquals(checkpoint.weightsTrain, read.weightsTrain, 0);
+        assertEquals(checkpoint.maxWeight, read.maxWeight, 0);
+        Assert.assertTrue(Arrays.equals(checkpoint.removedFromTrain, read.removedFromTrain));
+        Assert.assertTrue(Arrays.equals(checkpoint.removedFromTest, read.removedFromTest));
+        Assert.assertTrue(Arrays.equals(checkpoint.stumpBlacklist, read.stumpBlacklist));
+        assertEquals(checkpoint.usedTrainNeg, read.usedTrainNeg);
+        assertEquals(checkpoint.samplingGapCount, read.samplingGapCount);
+
+        // The restored sampler draws the features the interrupted training would have drawn
+        for (int i = 0; i < 10; i++)
+            assertEquals(checkpoint.featureSampler.nextDouble(), read.featureSampler.nextDouble(), 0);
+
+        // A new checkpoint replaces the previous one
+        checkpoint.round = 2;
+        checkpoint.layerStarted = false;
+        Assert.assertTrue(checkpoint.write(path));
+        assertEquals(2, TrainingCheckpoint.read(path).round);
+
+        Utils.deleteFile(path);
+        Files.delete(dir);
+    }
+
+    /**
+     * Stops a training as a crash would, right after a checkpoint
+     */
+    private static class TrainingStopped extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Classifier keeping a copy of each checkpoint it writes, stopped once the first cascade layer is done
+     */
+    private static class RecordingClassifier extends Classifier {
+        private final String prefix;
+        final ArrayList<String> checkpoints = new ArrayList<>();
+
+        RecordingClassifier(String prefix) {
+            super(19, 19);
+            this.prefix = prefix;
+        }
+
+        @Override
+        void saveCheckpoint(int round, boolean layerStarted) {
+            super.saveCheckpoint(round, layerStarted);
+            String copy = prefix + checkpoints.size() + ".checkpoint";
+            try {
+                Files.copy(Paths.get(Conf.TRAIN_CHECKPOINT), Paths.get(copy));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            checkpoints.add(copy);
+            if (round > 0)
+                throw new TrainingStopped();
+        }
+
+        @Override
+        public void statsTests(int round) {
+            // Detection statistics on the validation images do not change the training
+        }
+    }
+
+    @Test
+    public void resumedTrainingMatchesUninterruptedTraining() throws IOException {
+        boolean checkpoints = Conf.TRAIN_CHECKPOINTS;
+        Conf.TRAIN_CHECKPOINTS = true;
+        try (FeatureFixture train = new FeatureFixture(10, 10);
+             FeatureFixture test = new FeatureFixture(20, 20)) {
+            RecordingClassifier uninterrupted = new RecordingClassifier(train.path("uninterrupted"));
+            try {
+                uninterrupted.train(train.dir, test.dir, 0.5f, 0.985f, 0.1f, 0.5f, true);
+                Assert.fail();
+            } catch (TrainingStopped e) {
+                // Expected
+            }
+            TrainingCheckpoint expected = TrainingCheckpoint.read(uninterrupted.checkpoints.get(uninterrupted.checkpoints.size() - 1));
+            Assert.assertTrue(uninterrupted.checkpoints.size() > 2);
+
+            // Stopped after the first or the last iteration of the layer, then resumed: the last one needs the evaluation
+            // of its committee to tell that the layer is done (here, that it has enough weak classifiers)
+            for (int stop : new int[]{0, uninterrupted.checkpoints.size() - 2}) {
+                Assert.assertTrue(TrainingCheckpoint.read(uninterrupted.checkpoints.get(stop)).layerStarted);
+                RecordingClassifier resumed = new RecordingClassifier(train.path("resumed" + stop + "-"));
+                try {
+                    resumed.resume(uninterrupted.checkpoints.get(stop));
+                    Assert.fail();
+                } catch (TrainingStopped e) {
+                    // Expected
+                }
+
+                TrainingCheckpoint actual = TrainingCheckpoint.read(resumed.checkpoints.get(resumed.checkpoints.size() - 1));
+                assertEquals(expected.round, actual.round);
+                assertEquals(expected.cascade[0].size(), actual.cascade[0].size());
+                for (int i = 0; i < expected.cascade[0].size(); i++) {
+                    StumpRule rule = expected.cascade[0].get(i);
+                    StumpRule resumedRule = actual.cascade[0].get(i);
+                    assertEquals(rule.featureIndex, resumedRule.featureIndex);
+                    assertEquals(rule.error, resumedRule.error, 0);
+                    assertEquals(rule.threshold, resumedRule.threshold, 0);
+                    assertEquals(rule.toggle, resumedRule.toggle);
+                }
+                assertEquals(expected.tweaks, actual.tweaks);
+                assertEquals(expected.accumulatedFPR, actual.accumulatedFPR, 0);
+                Assert.assertTrue(Arrays.equals(expected.removedFromTrain, actual.removedFromTrain));
+                Assert.assertTrue(Arrays.equals(expected.removedFromTest, actual.removedFromTest));
+            }
+        } finally {
+            Conf.TRAIN_CHECKPOINTS = checkpoints;
+            Files.deleteIfExists(Paths.get(Conf.TRAIN_CHECKPOINT));
+        }
+    }
+}
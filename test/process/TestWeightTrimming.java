@@ -0,0 +1,51 @@
+package process;
+
+import org.junit.Assert;
+import org.junit.Test;
+import process.features.FeatureFixture;
+import process.features.FeatureStore;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestWeightTrimming {
+
+    @Test
+    public void weightTrimmingTest() throws Exception {
+        byte[] labels = {1, 1, 1, -1, -1, -1};
+        double[] weights = {0.05, 0.1, 0.1, 0.05, 0.3, 0.01};
+        boolean[] removed = {false, false, false, false, false, true};
+
+        // Budget of 0.35 * 0.6 = 0.21 reaches one of the two examples of weight 0.1: both are kept at the cut
+        WeightTrimming trimming = WeightTrimming.trim(weights, labels, removed, 0.25, 0.35, 0.35);
+        assertEquals(2, trimming.trimmedCount);
+        Assert.assertArrayEquals(new double[]{0, 0.1, 0.1, 0, 0.3, 0.01}, trimming.weights, 0);
+        assertEquals(0.2, trimming.weightPos, 1e-12);
+        assertEquals(0.3, trimming.weightNeg, 1e-12);
+        Assert.assertArrayEquals(new double[]{0.05, 0.1, 0.1, 0.05, 0.3, 0.01}, weights, 0);
+
+        // Nothing to trim: the weights are given as they are
+        for (double ratio : new double[]{0, 0.01, 1}) {
+            trimming = WeightTrimming.trim(weights, labels, removed, 0.25, 0.35, ratio);
+            assertEquals(0, trimming.trimmedCount);
+            Assert.assertTrue(trimming.weights == weights);
+            assertEquals(0.25, trimming.weightPos, 0);
+            assertEquals(0.35, trimming.weightNeg, 0);
+        }
+    }
+
+    @Test
+    public void untrimmedErrorTest() throws Exception {
+        // The error of a rule on all examples is the one of DecisionStump when nothing is trimmed
+        try (FeatureFixture fixture = new FeatureFixture(3, 2)) {
+            int N = fixture.examples().size();
+            FeatureStore store = fixture.organize();
+            byte[] labels = {1, 1, 1, -1, -1};
+            double[] weights = {0.1, 0.3, 0.2, 0.25, 0.15};
+            boolean[] removed = {false, false, true, false, false};
+            for (int i = 0; i < fixture.featureCount; i += 17) {
+                StumpRule exact = new DecisionStump(store, labels, weights, i, N, 0.4, 0.4, 0.01, removed).call();
+                assertEquals(exact.error, DecisionStump.error(store, labels, weights, removed, 0.4, 0.4, 0.01, exact), 1e-12);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package process.distributed;
+
+import org.junit.Test;
+import process.StumpRule;
+import process.StumpSearch;
+import process.features.FeatureFixture;
+import process.features.FeatureStore;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestStumpCoordinator {
+
+    @Test
+    public void shardedStumpSearchTest() throws Exception {
+        try (FeatureFixture fixture = new FeatureFixture(3, 2)) {
+            long featureCount = fixture.featureCount;
+            int N = fixture.examples().size();
+            FeatureStore store = fixture.organize();
+
+            // Workers of the test run in this JVM, on local ports
+            ArrayList<String> addresses = new ArrayList<>();
+            StumpWorker[] workers = new StumpWorker[3];
+            for (int i = 0; i < workers.length; i++) {
+                ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                addresses.add("localhost:" + server.getLocalPort());
+                workers[i] = new StumpWorker(server);
+                new Thread(workers[i]::serve).start();
+            }
+
+            byte[] labels = {1, 1, 1, -1, -1};
+            double[] weights = {0.1, 0.2, 0.2, 0.3, 0.2};
+            ArrayList<Integer> features = new ArrayList<>();
+            for (int i = 0; i < featureCount; i += 7)
+                features.add(i);
+
+            ForkJoinPool pool = new ForkJoinPool(2);
+            try (StumpCoordinator coordinator = new StumpCoordinator(addresses)) {
+                coordinator.load(fixture.feature(), fixture.sample(), featureCount, N, labels);
+                for (boolean[] removed : new boolean[][]{new boolean[N], {false, false, true, false, true}}) {
+                    StumpRule expected = StumpSearch.search(pool, store, null, labels, weights, features, 0.5, 0.5, 0.1, removed, null);
+                    StumpRule sharded = coordinator.search(features, weights, removed, 0.5, 0.5, 0.1);
+                    assertEquals(expected.featureIndex, sharded.featureIndex);
+                    assertEquals(expected.threshold, sharded.threshold, 0);
+                    assertEquals(expected.toggle, sharded.toggle);
+                    assertEquals(expected.error, sharded.error, 0);
+                }
+            } finally {
+                pool.shutdown();
+                for (StumpWorker worker : workers)
+                    worker.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package process.features;
+
+import process.Conf;
+import utils.ChannelIO;
+import utils.Serializer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static process.features.FeatureExtractor.computeImageFeatures;
+import static process.features.FeatureExtractor.countAllFeatures;
+import static utils.Utils.listFiles;
+
+/**
+ * Dataset of the tests: the first images of a dataset directory, copied with their .haar files to a temporary
+ * directory (dir + Conf.FACES, dir + Conf.NONFACES) that close() deletes with everything written in it.
+ * Tests that need no images search synthetic columns instead (see syntheticStore).
+ */
+public class FeatureFixture implements AutoCloseable {
+    public final String dir;
+    public final long featureCount = countAllFeatures(19, 19);
+    public final ArrayList<String> faces = new ArrayList<>();
+    public final ArrayList<String> nonFaces = new ArrayList<>();
+
+    public FeatureFixture(int faceCount, int nonFaceCount) {
+        this("data/trainset", faceCount, nonFaceCount);
+    }
+
+    public FeatureFixture(String datasetDir, int faceCount, int nonFaceCount) {
+        Serializer.featureCount = featureCount;
+        if (Conf.USE_CUDA)
+            Conf.haarExtractor.setUp(19, 19);
+        try {
+            dir = Files.createTempDirectory("vj-test").toString();
+            copyImages(datasetDir + Conf.FACES, dir + Conf.FACES, faceCount, faces);
+            copyImages(datasetDir + Conf.NONFACES, dir + Conf.NONFACES, nonFaceCount, nonFaces);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void copyImages(String from, String to, int count, ArrayList<String> copies) throws IOException {
+        ArrayList<String> images = listFiles(from, Conf.IMAGES_EXTENSION);
+        Collections.sort(images);
+        Files.createDirectories(Paths.get(to));
+        for (String image : images.subList(0, count)) {
+            Path copy = Paths.get(to, Paths.get(image).getFileName().toString());
+            Files.copy(Paths.get(image), copy);
+            computeImageFeatures(copy.toString(), true);
+            copies.add(copy.toString());
+        }
+    }
+
+    /**
+     * Faces, then non-faces, as a training orders them
+     */
+    public ArrayList<String> examples() {
+        ArrayList<String> examples = new ArrayList<>(faces);
+        examples.addAll(nonFaces);
+        return examples;
+    }
+
+    public String path(String name) {
+        return dir + "/" + name;
+    }
+
+    public String feature() {
+        return path("organizedFeatures.data");
+    }
+
+    public String sample() {
+        return path("organizedSample.data");
+    }
+
+    /**
+     * Organizes the features of examples() to feature() and sample()
+     */
+    public FeatureStore organize() {
+        return FeatureExtractor.organizeFeatures(featureCount, examples(), feature(), sample(), false);
+    }
+
+    /**
+     * Store of featureCount features of N examples, with values in [0, distinctValues[: small ranges give many ties
+     */
+    public static FeatureStore syntheticStore(int featureCount, int N, int distinctValues, long seed) {
+        Random random = new Random(seed);
+        int[][][] columns = new int[featureCount][][];
+        for (int f = 0; f < featureCount; f++) {
+            int[] values = new int[N];
+            for (int i = 0; i < N; i++)
+                values[i] = random.nextInt(distinctValues);
+            Integer[] order = new Integer[N];
+            for (int i = 0; i < N; i++)
+                order[i] = i;
+            Arrays.sort(order, (a, b) -> Integer.compare(values[a], values[b]));
+            columns[f] = new int[2][N];
+            for (int i = 0; i < N; i++) {
+                columns[f][0][i] = order[i];
+                columns[f][1][i] = values[order[i]];
+            }
+        }
+        return new FeatureStore() {
+            @Override
+            public int getN() {
+                return N;
+            }
+
+            @Override
+            public int[][] sortedColumn(long featureIndex) {
+                return columns[(int) featureIndex];
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        ChannelIO.closeAll();
+        try (Stream<Path> files = Files.walk(Paths.get(dir))) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package process.features;
+
+import org.junit.Assert;
+import org.junit.Test;
+import process.BinnedDecisionStump;
+import process.DecisionStump;
+import process.StumpRule;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestBinnedFeatures {
+
+    @Test
+    public void binnedFeaturesTest() throws Exception {
+        try (FeatureFixture fixture = new FeatureFixture(3, 2)) {
+            long featureCount = fixture.featureCount;
+            int N = fixture.examples().size();
+
+            FeatureStore store = fixture.organize();
+            BinnedFeatures twoBins = BinnedFeatures.build(store, featureCount, 2, fixture.path("bins2"));
+            BinnedFeatures allBins = BinnedFeatures.build(store, featureCount, 256, fixture.path("bins256"));
+
+            byte[] labels = {1, 1, 1, -1, -1};
+            double[] weights = {0.1, 0.2, 0.2, 0.3, 0.2};
+            boolean[] removed = new boolean[N];
+            for (int i = 0; i < featureCount; i += 17) {
+                int[][] column = store.sortedColumn(i);
+                Assert.assertTrue(twoBins.binCount(i) <= 2);
+                for (int j = 0; j < N; j++) {
+                    int bin = twoBins.bins(i).get(column[0][j]) & 0xFF;
+                    Assert.assertTrue(twoBins.lowest(i, bin) <= column[1][j] && column[1][j] <= twoBins.highest(i, bin));
+                }
+
+                // With a bin by value, the histogram search finds the rule of the exact search
+                StumpRule exact = new DecisionStump(store, labels, weights, i, N, 0.5, 0.5, 0.1, removed).call();
+                StumpRule binned = new BinnedDecisionStump(allBins, labels, weights, i, BinnedDecisionStump.liveExamples(removed, weights), 0.5, 0.5, 0.1).call();
+                assertEquals(exact.threshold, binned.threshold, 0);
+                assertEquals(exact.margin, binned.margin, 0);
+                assertEquals(exact.toggle, binned.toggle);
+                assertEquals(exact.error, binned.error, 1e-12);
+            }
+        }
+    }
+}
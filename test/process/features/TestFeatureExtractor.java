@@ -4,23 +4,16 @@ import GUI.ImageHandler;
 import org.junit.Assert;
 import org.junit.Test;
 import process.Conf;
+import utils.FeatureCache;
 import utils.Serializer;
-import utils.Utils;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 
 import static org.junit.Assert.assertEquals;
 import static process.features.FeatureExtractor.*;
 
 public class TestFeatureExtractor {
 
-    public final static String TRAIN_DIR = "tmp/test/";
-    public final static String ORGANIZED_FEATURES = TRAIN_DIR + "/organizedFeatures.data";
-    public final static String ORGANIZED_SAMPLE = TRAIN_DIR + "/organizedSample.data";
-
-
     @Test
     public void featuresChecker() {
         int[][] tmp = {{0, 0, 0, 0},
@@ -72,73 +65,153 @@ public class TestFeatureExtractor {
     }
 
     @Test
-    public void getExampleIndexTest() {
-        if (Conf.USE_CUDA)
-            Conf.haarExtractor.setUp(19, 19);
-
-        String img1 = "data/trainset/faces/face00001.png";
-        String img2 = "data/trainset/faces/face00002.png";
-        String img3 = "data/trainset/faces/face00003.png";
-        String img4 = "data/trainset/faces/face00004.png";
-
-        ArrayList<String> files = new ArrayList<>();
-        files.add(img1);
-        files.add(img2);
-        files.add(img3);
-        files.add(img4);
-
-        Serializer.featureCount = countAllFeatures(19, 19);
+    public void getExampleIndexTest() throws Exception {
+        try (FeatureFixture fixture = new FeatureFixture(4, 0)) {
+            ArrayList<String> files = fixture.faces;
 
-        int numFeatures = (int) Serializer.featureCount;
-        int[] features1 = new int[numFeatures];
-        if (Utils.fileExists(img1 + Conf.FEATURE_EXTENSION))
-            System.arraycopy(Serializer.readFeatures(img1 + Conf.FEATURE_EXTENSION), 0, features1, 0, numFeatures);
-        else
-            features1 = computeImageFeatures(img1, true);
+            ArrayList<int[]> all = new ArrayList<>();
+            for (String file : files)
+                all.add(Serializer.readFeatures(file + Conf.FEATURE_EXTENSION));
 
-        int[] features2 = new int[numFeatures];
-        if (Utils.fileExists(img2 + Conf.FEATURE_EXTENSION))
-            System.arraycopy(Serializer.readFeatures(img2 + Conf.FEATURE_EXTENSION), 0, features2, 0, numFeatures);
-            else
-            features2 = computeImageFeatures(img2, true);
+            organizeFeatures(fixture.featureCount, files, fixture.feature(), fixture.sample());
 
-        int[] features3 = new int[numFeatures];
-        if (Utils.fileExists(img3 + Conf.FEATURE_EXTENSION))
-            System.arraycopy(Serializer.readFeatures(img3 + Conf.FEATURE_EXTENSION), 0, features3, 0, numFeatures);
-        else
-            features3 = computeImageFeatures(img3, true);
+            for (int i = 0; i < fixture.featureCount; i++) {
+                for (int j = 0; j < 4; j++) {
+                    int index = getExampleIndex(i, j, 4, fixture.sample());
 
-        int[] features4 = new  int[numFeatures];
-        if (Utils.fileExists(img4 + Conf.FEATURE_EXTENSION))
-            System.arraycopy(Serializer.readFeatures(img4 + Conf.FEATURE_EXTENSION), 0, features4, 0, numFeatures);
-        else
-            features4 = computeImageFeatures(img4, true);
+                    Assert.assertTrue(index < 4);
+                    Assert.assertTrue(index >= 0);
 
+                    int feat = getExampleFeature(i, j, 4, fixture.feature());
 
-        ArrayList<int[]> all = new ArrayList<>();
-        all.add(features1);
-        all.add(features2);
-        all.add(features3);
-        all.add(features4);
+                    assertEquals(Long.valueOf(all.get(index)[i]), Long.valueOf(feat));
 
-        if (Utils.fileExists(ORGANIZED_SAMPLE))
-            Utils.deleteFile(ORGANIZED_SAMPLE);
-        if (Utils.fileExists(ORGANIZED_FEATURES))
-            Utils.deleteFile(ORGANIZED_FEATURES);
+                }
+            }
+        }
+    }
 
-        organizeFeatures(numFeatures, files, ORGANIZED_FEATURES, ORGANIZED_SAMPLE);
+    @Test
+    public void onTheFlyFeaturesTest() {
+        ArrayList<String> files = new ArrayList<>();
+        files.add("data/trainset/faces/face00001.png");
+        files.add("data/trainset/faces/face00002.png");
+        files.add("data/trainset/non-faces/B1_00001.png");
 
-        for (int i = 0; i < numFeatures; i++) {
-            for (int j = 0; j < 4; j++) {
-                int index = getExampleIndex(i, j, 4, ORGANIZED_SAMPLE);
+        Serializer.featureCount = countAllFeatures(19, 19);
+        OnTheFlyFeatures onTheFly = new OnTheFlyFeatures(files, 19, 19);
+        assertEquals(Serializer.featureCount, onTheFly.getFeatureCount());
 
-                Assert.assertTrue(index < 4);
-                Assert.assertTrue(index >= 0);
+        ArrayList<int[]> all = new ArrayList<>();
+        for (String file : files)
+            all.add(computeImageFeatures(new ImageHandler(file), false, file));
+
+        for (int i = 0; i < Serializer.featureCount; i += 7) {
+            int[][] column = onTheFly.column(i);
+            for (int j = 0; j < files.size(); j++)
+                assertEquals(all.get(column[0][j])[i], column[1][j]);
+
+            int[][] sorted = onTheFly.sortedColumn(i);
+            for (int j = 0; j < files.size(); j++) {
+                assertEquals(all.get(sorted[0][j])[i], sorted[1][j]);
+                if (j > 0)
+                    Assert.assertTrue(sorted[1][j - 1] <= sorted[1][j]);
+            }
+        }
+    }
 
-                int feat = getExampleFeature(i, j, 4, ORGANIZED_FEATURES);
+    @Test
+    public void streamingOrganizerBlocksTest() throws Exception {
+        try (FeatureFixture fixture = new FeatureFixture(3, 2)) {
+            long featureCount = fixture.featureCount;
+            ArrayList<String> files = fixture.examples();
+
+            ArrayList<int[]> all = new ArrayList<>();
+            for (String file : files)
+                all.add(Serializer.readFeatures(file + Conf.FEATURE_EXTENSION));
+
+            // Blocks of 2 examples: 3 blocks, the last one being incomplete
+            long memory = 2 * 2L * featureCount * Integer.BYTES;
+            assertEquals(2, StreamingOrganizer.blockSize(featureCount, files.size(), memory));
+            StreamingOrganizer.organize(featureCount, files, fixture.feature(), fixture.sample(), memory);
+
+            int N = files.size();
+            for (int i = 0; i < featureCount; i += 13) {
+                int[] indexes = Serializer.readIndexesFromDisk(fixture.sample(), (long) i * N, (long) (i + 1) * N, N);
+                int[] values = Serializer.readArrayFromDisk(fixture.feature(), (long) i * N, (long) (i + 1) * N);
+                for (int j = 0; j < N; j++) {
+                    assertEquals(all.get(indexes[j])[i], values[j]);
+                    if (j > 0) {
+                        Assert.assertTrue(values[j - 1] <= values[j]);
+                        // Merging runs keeps ties in example order, as sorting whole columns does
+                        if (values[j - 1] == values[j])
+                            Assert.assertTrue(indexes[j - 1] < indexes[j]);
+                    }
+                }
+            }
+        }
+    }
 
-                assertEquals(Long.valueOf(all.get(index)[i]), Long.valueOf(feat));
+    @Test
+    public void organizeInMemoryTest() throws Exception {
+        try (FeatureFixture fixture = new FeatureFixture(2, 1)) {
+            long featureCount = fixture.featureCount;
+            ArrayList<String> files = fixture.examples();
+
+            FeatureCache cache = new FeatureCache(featureCount);
+            cache.buildImagesFeatures(fixture.faces, fixture.nonFaces, true);
+            ArrayList<int[]> all = new ArrayList<>();
+            for (String file : files)
+                all.add(cache.readFeatures(file + Conf.FEATURE_EXTENSION).clone());
+
+            organizeFeatures(featureCount, files, fixture.feature(), fixture.sample(), false,
+                    Conf.ORGANIZE_MEMORY_BUDGET, cache);
+            Assert.assertFalse(cache.isOffHeap());
+
+            int N = files.size();
+            for (int i = 0; i < featureCount; i += 11) {
+                int[] indexes = Serializer.readIndexesFromDisk(fixture.sample(), (long) i * N, (long) (i + 1) * N, N);
+                int[] values = Serializer.readArrayFromDisk(fixture.feature(), (long) i * N, (long) (i + 1) * N);
+                for (int j = 0; j < N; j++) {
+                    assertEquals(all.get(indexes[j])[i], values[j]);
+                    if (j > 0)
+                        Assert.assertTrue(values[j - 1] <= values[j]);
+                }
+            }
+        }
+    }
 
+    @Test
+    public void incrementalOrganizeTest() throws Exception {
+        try (FeatureFixture fixture = new FeatureFixture(3, 2)) {
+            long featureCount = fixture.featureCount;
+            String feature = fixture.feature();
+            String sample = fixture.sample();
+
+            ArrayList<String> files = new ArrayList<>();
+            files.add(fixture.faces.get(0));
+            files.add(fixture.faces.get(1));
+            files.add(fixture.nonFaces.get(0));
+
+            // A new face goes before the non-faces: indexes of organized non-faces change
+            ArrayList<String> moreFiles = new ArrayList<>(files);
+            moreFiles.add(2, fixture.faces.get(2));
+            moreFiles.add(fixture.nonFaces.get(1));
+
+            organizeFeatures(featureCount, files, feature, sample, false);
+            Assert.assertTrue(IncrementalOrganizer.update(featureCount, moreFiles, feature, sample));
+            StreamingOrganizer.organize(featureCount, moreFiles, feature + ".full", sample + ".full");
+
+            int N = moreFiles.size();
+            for (int i = 0; i < featureCount; i += 7) {
+                int[] indexes = Serializer.readIndexesFromDisk(sample, (long) i * N, (long) (i + 1) * N, N);
+                int[] values = Serializer.readArrayFromDisk(feature, (long) i * N, (long) (i + 1) * N);
+                int[] fullIndexes = Serializer.readIndexesFromDisk(sample + ".full", (long) i * N, (long) (i + 1) * N, N);
+                int[] fullValues = Serializer.readArrayFromDisk(feature + ".full", (long) i * N, (long) (i + 1) * N);
+                for (int j = 0; j < N; j++) {
+                    assertEquals(fullValues[j], values[j]);
+                    assertEquals(fullIndexes[j], indexes[j]);
+                }
             }
         }
     }
@@ -0,0 +1,107 @@
+package process.features;
+
+import org.junit.Assert;
+import org.junit.Test;
+import utils.Utils;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestFeatureStores {
+
+    @Test
+    public void featureStoresTest() throws Exception {
+        try (FeatureFixture fixture = new FeatureFixture(2, 1)) {
+            long featureCount = fixture.featureCount;
+            int N = fixture.examples().size();
+
+            FeatureStore disk = fixture.organize();
+            Assert.assertTrue(disk instanceof DiskFeatureStore);
+
+            // Several stores can live in the same JVM
+            FeatureStore inMemory = new InMemoryFeatureStore(fixture.feature(), fixture.sample(), featureCount, N);
+            FeatureStore otherInMemory = new InMemoryFeatureStore(fixture.feature(), fixture.sample(), featureCount, N);
+            FeatureStore mapped = new MappedFeatureStore(fixture.feature(), fixture.sample(), featureCount, N);
+
+            for (int i = 0; i < featureCount; i += 13) {
+                int[][] expected = disk.sortedColumn(i);
+                for (FeatureStore store : new FeatureStore[]{inMemory, otherInMemory, mapped}) {
+                    Assert.assertArrayEquals(expected[0], store.sortedColumn(i)[0]);
+                    Assert.assertArrayEquals(expected[1], store.sortedColumn(i)[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compactFeatureStoresTest() throws Exception {
+        try (FeatureFixture fixture = new FeatureFixture(3, 2)) {
+            long featureCount = fixture.featureCount;
+            String feature = fixture.feature();
+            String sample = fixture.sample();
+            int N = fixture.examples().size();
+
+            FeatureStore full = fixture.organize();
+            boolean[] removed = {false, true, false, true, false};
+            FeatureStore[] stores = {
+                    new DiskFeatureStore(feature, sample, featureCount, N).compact(removed),
+                    new MappedFeatureStore(feature, sample, featureCount, N).compact(removed),
+                    new InMemoryFeatureStore(feature, sample, featureCount, N).compact(removed),
+                    new OnTheFlyFeatures(fixture.examples(), 19, 19).compact(removed)
+            };
+
+            for (int i = 0; i < featureCount; i += 19) {
+                int[][] column = full.sortedColumn(i);
+                ArrayList<Integer> liveValues = new ArrayList<>();
+                for (int j = 0; j < N; j++)
+                    if (!removed[column[0][j]])
+                        liveValues.add(column[1][j]);
+                for (FeatureStore store : stores) {
+                    assertEquals(3, store.getN());
+                    int[][] compacted = store.sortedColumn(i);
+                    for (int j = 0; j < 3; j++) {
+                        Assert.assertFalse(removed[compacted[0][j]]);
+                        assertEquals((int) liveValues.get(j), compacted[1][j]);
+                    }
+                }
+            }
+
+            // Compacted examples can not come back
+            try {
+                stores[2].compact(new boolean[N]);
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+
+            // A compacted store is compacted again to the other name, then closed: its files are deleted, not the new ones
+            String live0 = ColumnCompactor.livePath(feature);
+            String live1 = ColumnCompactor.livePath(live0);
+            assertEquals(feature + ".live0", live0);
+            assertEquals(feature + ".live1", live1);
+            assertEquals(live0, ColumnCompactor.livePath(live1));
+            boolean[] removedAgain = {true, true, false, true, false};
+            for (int k = 0; k < 2; k++) {
+                FeatureStore again = stores[k].compact(removedAgain);
+                Assert.assertTrue(Utils.fileExists(live1) && Utils.fileExists(ColumnCompactor.livePath(ColumnCompactor.livePath(sample))));
+                stores[k].close();
+                Assert.assertFalse(Utils.fileExists(live0));
+                assertEquals(2, again.getN());
+                for (int i = 0; i < featureCount; i += 19) {
+                    int[][] expected = full.sortedColumn(i);
+                    int[][] compacted = again.sortedColumn(i);
+                    for (int j = 0, c = 0; j < N; j++)
+                        if (!removedAgain[expected[0][j]]) {
+                            assertEquals(expected[0][j], compacted[0][c]);
+                            assertEquals(expected[1][j], compacted[1][c++]);
+                        }
+                }
+                if (k == 0) // The mapped store compacts the original files to live0 again
+                    stores[1] = new MappedFeatureStore(feature, sample, featureCount, N).compact(removed);
+                again.close();
+                Assert.assertFalse(Utils.fileExists(live1));
+            }
+        }
+    }
+}
@@ -4,13 +4,25 @@ import org.junit.Assert;
 import org.junit.Test;
 import process.Conf;
 import process.StumpRule;
+import utils.ArgSort;
 import utils.CascadeSerializer;
+import utils.ColumnWriter;
+import utils.DatasetManifest;
+import utils.FeatureCache;
+import utils.FeatureCodec;
+import utils.MappedColumns;
+import utils.MemoryBudget;
+import utils.OffHeapIntMatrix;
 import utils.Serializer;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 
 import static junit.framework.TestCase.assertEquals;
 import static process.features.FeatureExtractor.computeImageFeatures;
@@ -108,6 +120,48 @@ public class TestSerializer {
             assertEquals(writtenValues[i], correctValues[i]);
     }
 
+    @Test
+    public void compressedFeatures() {
+        Serializer.featureCount = countAllFeatures(19, 19);
+        if (Conf.USE_CUDA)
+            Conf.haarExtractor.setUp(19, 19);
+        String img = "data/trainset/faces/face00001.png";
+        String haar = Conf.TEST_DIR + "/compressedFeatures.haar";
+
+        if (Files.exists(Paths.get(haar))) {
+            try {
+                Files.delete(Paths.get(haar));
+            } catch (IOException e) {
+                e.printStackTrace();
+                assertEquals(false, true);
+            }
+        }
+
+        int[] correctValues = computeImageFeatures(img, false);
+
+        Conf.COMPRESS_FEATURES = true;
+        writeFeaturesToDisk(haar, correctValues, Serializer.featureCount);
+        Conf.COMPRESS_FEATURES = false;
+
+        Assert.assertTrue(new File(haar).length() < Serializer.featureCount * Integer.BYTES);
+
+        int[] readValues = readArrayFromDisk(haar, Serializer.featureCount);
+        for (int i = 0; i < Serializer.featureCount; i++)
+            assertEquals(correctValues[i], readValues[i]);
+
+        assertEquals(correctValues[1234], readFeatureFromDisk(haar, 1234));
+        assertEquals(correctValues[0], readFeatureFromDisk(haar, 0));
+        // Later reads come from the decoded file
+        for (int i = 0; i < Serializer.featureCount; i += 97)
+            assertEquals(correctValues[i], readFeatureFromDisk(haar, i));
+        assertEquals(correctValues[correctValues.length - 1], readFeatureFromDisk(haar, Serializer.featureCount - 1));
+
+        int[] extremes = {0, -1, 1, Integer.MAX_VALUE, Integer.MIN_VALUE, 92055, -92055};
+        int[] decoded = FeatureCodec.decode(FeatureCodec.encode(extremes, extremes.length));
+        for (int i = 0; i < extremes.length; i++)
+            assertEquals(extremes[i], decoded[i]);
+    }
+
     @Test
     public void printRuleTest() {
         String tmp_file = "tmp/test/featuresValues.data";
@@ -189,4 +243,294 @@ public class TestSerializer {
             Assert.assertEquals(tweaks.get(i), readTweaks.get(i));
         }
     }
+
+    @Test
+    public void argSort() {
+        Random random = new Random(42);
+        for (int n : new int[]{0, 1, 2, 100, ArgSort.RADIX_THRESHOLD, 5000}) {
+            int[] values = new int[n];
+            for (int i = 0; i < n; i++)
+                values[i] = i % 3 == 0 ? random.nextInt() : random.nextInt(201) - 100;
+
+            int[] radixValues = values.clone();
+            int[] radixIndexes = new int[n];
+            int[] comparisonValues = values.clone();
+            int[] comparisonIndexes = new int[n];
+            for (int i = 0; i < n; i++) {
+                radixIndexes[i] = i;
+                comparisonIndexes[i] = i;
+            }
+
+            ArgSort.radixSort(radixValues, radixIndexes, n);
+            ArgSort.comparisonSort(comparisonValues, comparisonIndexes, n);
+            for (int i = 0; i < n; i++) {
+                assertEquals(comparisonValues[i], radixValues[i]);
+                assertEquals(comparisonIndexes[i], radixIndexes[i]);
+                assertEquals(values[radixIndexes[i]], radixValues[i]);
+            }
+        }
+    }
+
+    @Test
+    public void indexWidth() {
+        assertEquals(Character.BYTES, indexBytes(4));
+        assertEquals(Character.BYTES, indexBytes(65536));
+        assertEquals(Integer.BYTES, indexBytes(65537));
+
+        int[] indexes = {0, 1, 65535, 42};
+        for (int width : new int[]{Character.BYTES, Integer.BYTES}) {
+            ByteBuffer bytes = ByteBuffer.allocate(indexes.length * Integer.BYTES);
+            putIndexes(bytes, indexes, indexes.length, width);
+            assertEquals(indexes.length * width, bytes.remaining());
+            int[] read = new int[indexes.length];
+            getIndexes(bytes, read, indexes.length, width);
+            for (int i = 0; i < indexes.length; i++)
+                assertEquals(indexes[i], read[i]);
+        }
+    }
+
+    @Test
+    public void datasetManifest() throws IOException {
+        String manifestPath = Conf.TEST_DIR + "/manifest.properties";
+        String artifact = Conf.TEST_DIR + "/manifestArtifact.data";
+        for (String file : new String[]{manifestPath, artifact})
+            Files.deleteIfExists(Paths.get(file));
+        Files.write(Paths.get(artifact), new byte[]{1, 2, 3});
+
+        ArrayList<String> files = new ArrayList<>();
+        files.add(artifact);
+        String fingerprint = DatasetManifest.fingerprint(files);
+
+        DatasetManifest manifest = DatasetManifest.load(manifestPath, "1/42");
+        Assert.assertTrue(manifest.isNew());
+        Assert.assertFalse(manifest.isArtifactUnchanged(artifact));
+        manifest.recordArtifact(artifact);
+        manifest.setFingerprint("set", fingerprint);
+        manifest.save();
+
+        manifest = DatasetManifest.load(manifestPath, "1/42");
+        Assert.assertFalse(manifest.isNew());
+        Assert.assertTrue(manifest.isArtifactUnchanged(artifact));
+        Assert.assertTrue(manifest.matchesFingerprint("set", fingerprint));
+
+        Files.write(Paths.get(artifact), new byte[]{1, 2, 3, 4});
+        Assert.assertFalse(manifest.isArtifactUnchanged(artifact));
+        Assert.assertFalse(manifest.matchesFingerprint("set", DatasetManifest.fingerprint(files)));
+
+        // Another feature set invalidates everything
+        manifest.recordArtifact(artifact);
+        manifest.save();
+        Assert.assertFalse(DatasetManifest.load(manifestPath, "2/42").isArtifactUnchanged(artifact));
+
+        // Checksums are only computed when they are verified
+        boolean verify = Conf.MANIFEST_VERIFY_CHECKSUMS;
+        try {
+            Conf.MANIFEST_VERIFY_CHECKSUMS = true;
+            Assert.assertFalse(manifest.isArtifactUnchanged(artifact));
+            manifest.recordArtifact(artifact);
+            Assert.assertTrue(manifest.isArtifactUnchanged(artifact));
+            long modified = new File(artifact).lastModified();
+            Files.write(Paths.get(artifact), new byte[]{4, 3, 2, 1});
+            Assert.assertTrue(new File(artifact).setLastModified(modified));
+            Assert.assertFalse(manifest.isArtifactUnchanged(artifact));
+        } finally {
+            Conf.MANIFEST_VERIFY_CHECKSUMS = verify;
+        }
+
+        Files.delete(Paths.get(artifact));
+        Files.delete(Paths.get(manifestPath));
+    }
+
+    @Test
+    public void mappedColumns() throws IOException {
+        String filePath = Conf.TEST_DIR + "/mappedColumns.data";
+        Files.deleteIfExists(Paths.get(filePath));
+        int columns = 5;
+        int N = 3;
+        int[] values = new int[columns * N];
+        for (int i = 0; i < values.length; i++)
+            values[i] = i * 1000 - 7000;
+        writeArrayToDisk(filePath, values, values.length);
+
+        // One column by mapping, as for files larger than 2Go
+        MappedColumns mapped = new MappedColumns(filePath, columns, N, Integer.BYTES, N * Integer.BYTES);
+        assertEquals(columns, mapped.getMappingCount());
+        assertEquals(1, new MappedColumns(filePath, columns, N, Integer.BYTES).getMappingCount());
+        for (int c = 0; c < columns; c++) {
+            IntBuffer column = mapped.intColumn(c);
+            assertEquals(N, column.remaining());
+            for (int j = 0; j < N; j++)
+                assertEquals(values[c * N + j], column.get(j));
+        }
+
+        // Narrow indexes: 2 columns of 3 chars by mapping
+        ByteBuffer bytes = ByteBuffer.allocate(columns * N * Character.BYTES);
+        int[] indexes = new int[columns * N];
+        for (int i = 0; i < indexes.length; i++)
+            indexes[i] = 65535 - i;
+        putIndexes(bytes, indexes, indexes.length, Character.BYTES);
+        Files.write(Paths.get(filePath), Arrays.copyOf(bytes.array(), bytes.limit()));
+        mapped = new MappedColumns(filePath, columns, N, Character.BYTES, 2 * N * Character.BYTES);
+        assertEquals(3, mapped.getMappingCount());
+        for (int c = 0; c < columns; c++)
+            for (int j = 0; j < N; j++)
+                assertEquals(indexes[c * N + j], mapped.charColumn(c).get(j));
+
+        Files.delete(Paths.get(filePath));
+    }
+
+    @Test
+    public void offHeapMatrix() {
+        // Segments of 8 ints: rows of 5 values cross segments
+        OffHeapIntMatrix matrix = new OffHeapIntMatrix(7, 5, 3);
+        for (int row = 0; row < 7; row++) {
+            int[] values = new int[5];
+            for (int column = 0; column < 5; column++)
+                values[column] = row * 100 - column;
+            matrix.setRow(row, values);
+        }
+        matrix.set(6, 4, 42);
+
+        int[] values = new int[5];
+        for (int row = 0; row < 7; row++) {
+            matrix.getRow(row, values);
+            for (int column = 0; column < 5; column++) {
+                int expected = row == 6 && column == 4 ? 42 : row * 100 - column;
+                assertEquals(expected, values[column]);
+                assertEquals(expected, matrix.get(row, column));
+            }
+        }
+
+        // Rows longer than an array are filled by parts
+        matrix.setRow(3, 2, new int[]{7, 8, 9}, 2);
+        assertEquals(300 - 1, matrix.get(3, 1));
+        assertEquals(7, matrix.get(3, 2));
+        assertEquals(8, matrix.get(3, 3));
+        assertEquals(300 - 4, matrix.get(3, 4));
+
+        assertEquals(7 * 5 * Integer.BYTES, matrix.getBytes());
+        matrix.free();
+        Assert.assertTrue(matrix.isFreed());
+    }
+
+    @Test
+    public void offHeapImagesFeatures() throws IOException {
+        try (FeatureFixture fixture = new FeatureFixture(2, 1)) {
+            ArrayList<String> faces = fixture.faces;
+            ArrayList<String> nonFaces = fixture.nonFaces;
+            ArrayList<String> files = fixture.examples();
+
+            // Rows are read from the .haar files by chunks
+            FeatureCache cache = new FeatureCache(Serializer.featureCount);
+            cache.buildImagesFeatures(faces, nonFaces, true, MemoryBudget.Tier.OFF_HEAP);
+            Assert.assertTrue(cache.isOffHeap());
+            for (String file : files) {
+                int[] expected = readArrayFromDisk(file + Conf.FEATURE_EXTENSION, Serializer.featureCount);
+                int row = cache.cachedTrainRow(file + Conf.FEATURE_EXTENSION);
+                for (int i = 0; i < Serializer.featureCount; i += 101)
+                    assertEquals(expected[i], cache.cachedTrainFeature(row, i));
+                Assert.assertTrue(Arrays.equals(expected, cache.readFeatures(file + Conf.FEATURE_EXTENSION)));
+            }
+
+            // Another dataset has its own cache: it does not replace the rows of the first one
+            FeatureCache other = new FeatureCache(Serializer.featureCount);
+            other.buildImagesFeatures(nonFaces, faces, true, MemoryBudget.Tier.HEAP);
+            Assert.assertFalse(other.isOffHeap());
+            assertEquals(0, other.cachedTrainRow(nonFaces.get(0) + Conf.FEATURE_EXTENSION));
+            assertEquals(2, cache.cachedTrainRow(nonFaces.get(0) + Conf.FEATURE_EXTENSION));
+            Assert.assertTrue(cache.isOffHeap());
+            other.freeImagesFeatures();
+            Assert.assertTrue(cache.isInMemory());
+            Assert.assertFalse(other.isInMemory());
+            cache.freeImagesFeatures();
+            assertEquals(-1, cache.cachedTrainRow(nonFaces.get(0) + Conf.FEATURE_EXTENSION));
+        }
+    }
+
+    @Test
+    public void columnWriter() throws IOException {
+        String filePath = Conf.TEST_DIR + "/columnWriter.data";
+        int N = 3;
+        int large = Conf.COLUMN_WRITE_BUFFER / Integer.BYTES + 1; // Last column, written without buffering
+        boolean writeBehind = Conf.COLUMN_WRITE_BEHIND;
+        for (boolean behind : new boolean[]{false, true}) {
+            Conf.COLUMN_WRITE_BEHIND = behind;
+            Files.deleteIfExists(Paths.get(filePath));
+            ByteBuffer bytes = ByteBuffer.allocate(large * Integer.BYTES);
+            try (ColumnWriter writer = new ColumnWriter(filePath, (10L * N + large) * Integer.BYTES)) {
+                // Two batches, as two threads: columns 0-4 and 5-9, the second one in a non contiguous order
+                try (ColumnWriter.Batch first = writer.batch(); ColumnWriter.Batch second = writer.batch()) {
+                    for (int c : new int[]{0, 5, 1, 6, 2, 9, 3, 7, 4, 8}) {
+                        bytes.clear();
+                        for (int j = 0; j < N; j++)
+                            bytes.putInt(c * 100 + j);
+                        bytes.flip();
+                        (c < 5 ? first : second).write(bytes, (long) c * N * Integer.BYTES);
+                    }
+                    bytes.clear();
+                    for (int j = 0; j < large; j++)
+                        bytes.putInt(-j);
+                    bytes.flip();
+                    second.write(bytes, 10L * N * Integer.BYTES);
+                }
+                writer.commit();
+            }
+
+            int[] result = readArrayFromDisk(filePath, 10L * N + large);
+            for (int c = 0; c < 10; c++)
+                for (int j = 0; j < N; j++)
+                    assertEquals(c * 100 + j, result[c * N + j]);
+            for (int j = 0; j < large; j++)
+                assertEquals(-j, result[10 * N + j]);
+        }
+        Conf.COLUMN_WRITE_BEHIND = writeBehind;
+        Files.delete(Paths.get(filePath));
+    }
+
+    @Test
+    public void memoryBudget() {
+        long featureCount = Serializer.featureCount;
+        long budget = Conf.MEMORY_BUDGET;
+        long organizeMemory = Conf.ORGANIZE_MEMORY_BUDGET;
+        long prefetchMemory = Conf.PREFETCH_MEMORY;
+        boolean map = Conf.MAP_ORGANIZED_FEATURES;
+        boolean offHeap = Conf.OFF_HEAP_FEATURES;
+
+        Serializer.featureCount = 1000;
+        int trainN = 1000;
+        int testN = 500;
+        long organized = Serializer.organizedMemory(trainN); // 6Mo with narrow indexes
+        Conf.OFF_HEAP_FEATURES = false;
+
+        // Everything fits
+        Conf.MAP_ORGANIZED_FEATURES = true;
+        Conf.MEMORY_BUDGET = 64L * 1024 * 1024;
+        MemoryBudget memory = MemoryBudget.plan(Serializer.featureCount, trainN, testN);
+        assertEquals(MemoryBudget.Tier.MAPPED, memory.getOrganizedTier());
+        assertEquals(MemoryBudget.Tier.HEAP, memory.getValidationTier());
+
+        Conf.MAP_ORGANIZED_FEATURES = false;
+        assertEquals(MemoryBudget.Tier.HEAP, MemoryBudget.plan(Serializer.featureCount, trainN, testN).getOrganizedTier());
+
+        // Organized features fit, not validation features (2Mo) after them: they are left on disk
+        Conf.MEMORY_BUDGET = organized + 1024 * 1024;
+        memory = MemoryBudget.plan(Serializer.featureCount, trainN, testN);
+        assertEquals(MemoryBudget.Tier.HEAP, memory.getOrganizedTier());
+        assertEquals(MemoryBudget.Tier.DISK, memory.getValidationTier());
+
+        // Organized features do not fit: streamed from disk, prefetching is bounded by what is left
+        Conf.MEMORY_BUDGET = organized / 2;
+        memory = MemoryBudget.plan(Serializer.featureCount, trainN, testN);
+        assertEquals(MemoryBudget.Tier.DISK, memory.getOrganizedTier());
+        assertEquals(MemoryBudget.Tier.HEAP, memory.getValidationTier());
+        Assert.assertTrue(memory.getPrefetchMemory() <= Conf.MEMORY_BUDGET && memory.getOrganizeMemory() <= Conf.MEMORY_BUDGET);
+        // Limits are returned, Conf is left as it was
+        assertEquals(organizeMemory, Conf.ORGANIZE_MEMORY_BUDGET);
+        assertEquals(prefetchMemory, Conf.PREFETCH_MEMORY);
+
+        Serializer.featureCount = featureCount;
+        Conf.MEMORY_BUDGET = budget;
+        Conf.MAP_ORGANIZED_FEATURES = map;
+        Conf.OFF_HEAP_FEATURES = offHeap;
+    }
 }